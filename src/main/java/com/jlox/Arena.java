@@ -0,0 +1,71 @@
+package main.java.com.jlox;
+
+// A program as flat records in one int array instead of a tree of objects.
+// Each record starts with its kind, possibly flagged NUMERIC, followed by its
+// operands: indices of child records, slots and depths, and indices into the
+// constant and token tables. Literals, global cells and function declarations
+// live in the constant table. Tokens are only kept for the line a runtime
+// error reports, one per line.
+//
+// Records are laid out in prefix order, so a parent comes right before its
+// children. The ArenaEncoder builds them and the ArenaExecutor runs them.
+class Arena {
+    // Expressions.
+    static final int CONSTANT = 1; // value
+    static final int NEGATE = 2; // token, right
+    static final int NOT = 3; // right
+    static final int ADD = 4; // token, left, right
+    static final int SUBTRACT = 5;
+    static final int MULTIPLY = 6;
+    static final int DIVIDE = 7;
+    static final int GREATER = 8;
+    static final int GREATER_EQUAL = 9;
+    static final int LESS = 10;
+    static final int LESS_EQUAL = 11;
+    static final int EQUAL = 12;
+    static final int NOT_EQUAL = 13;
+    static final int COMMA = 14;
+    static final int AND = 15; // left, right
+    static final int OR = 16;
+    static final int TERNARY = 17; // token, left, mid, right
+    static final int GET_LOCAL = 18; // token, depth, slot, name
+    static final int GET_GLOBAL = 19; // token, global
+    static final int SET_LOCAL = 20; // depth, slot, value
+    static final int SET_GLOBAL = 21; // token, global, value
+    static final int CALL = 22; // token, callee, count, arguments...
+    static final int LIST = 23; // count, elements...
+    static final int GET_INDEX = 24; // token, object, index
+    static final int SET_INDEX = 25; // token, object, index, value
+    static final int MAP = 26; // token, count, key and value pairs...
+
+    // Statements.
+    static final int EXPRESSION = 32; // expression
+    static final int PRINT = 33; // expression
+    static final int DEFINE_LOCAL = 34; // slot, initializer or -1
+    static final int DEFINE_GLOBAL = 35; // global, initializer or -1
+    static final int BLOCK = 36; // slots, count, statements...
+    static final int IF = 37; // condition, then, else or -1
+    static final int WHILE = 38; // condition, body, increment or -1
+    static final int BREAK = 39; // loop
+    static final int CONTINUE = 40; // loop
+    static final int FUNCTION = 41; // slot or -1, global or -1, declaration, count or -1 if lazy, statements...
+    static final int RETURN = 42; // value or -1
+    static final int TAIL_CALL = 43; // call
+
+    static final int KIND = 0xff;
+    // Set on expressions the TypeInferrer found can only produce a number.
+    static final int NUMERIC = 0x100;
+
+    final int[] nodes;
+    final Object[] constants;
+    final Token[] tokens;
+    // Indices of the top-level statements.
+    final int[] program;
+
+    Arena(int[] nodes, Object[] constants, Token[] tokens, int[] program) {
+        this.nodes = nodes;
+        this.constants = constants;
+        this.tokens = tokens;
+        this.program = program;
+    }
+}
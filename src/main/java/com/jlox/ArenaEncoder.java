@@ -0,0 +1,388 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static main.java.com.jlox.Arena.*;
+
+// Flattens a resolved tree into an Arena. Every record is reserved before its
+// children are encoded, which puts them in prefix order and lets a loop's
+// index be known to the break and continue statements inside it. Groupings
+// leave no record of their own.
+class ArenaEncoder implements Expr.Visitor<Integer>, Statement.Visitor<Integer> {
+    private final Environment globals;
+    private int[] nodes = new int[256];
+    private int size = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    private final List<Token> tokens = new ArrayList<>();
+    private final Map<Integer, Integer> tokenIndex = new HashMap<>();
+    private final Map<Statement.While, Integer> loops = new HashMap<>();
+
+    ArenaEncoder(Environment globals) {
+        this.globals = globals;
+    }
+
+    Arena encode(List<Statement> stmts) {
+        int[] program = new int[stmts.size()];
+        for (int i = 0; i < program.length; i++) {
+            program[i] = encode(stmts.get(i));
+        }
+
+        return new Arena(Arrays.copyOf(nodes, size), constants.toArray(), tokens.toArray(new Token[0]), program);
+    }
+
+    private int encode(Statement stmt) {
+        return stmt.accept(this);
+    }
+
+    private int encode(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private int encodeOrNone(Statement stmt) {
+        return stmt == null ? -1 : encode(stmt);
+    }
+
+    private int encodeOrNone(Expr expr) {
+        return expr == null ? -1 : encode(expr);
+    }
+
+    // Reserves a record of the given length and returns its index.
+    private int record(int header, int length) {
+        if (size + length > nodes.length)
+            nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + length));
+
+        int at = size;
+        set(at, header);
+        size += length;
+        return at;
+    }
+
+    // Through a method so that the array is read after the value is computed;
+    // encoding a child may have grown it.
+    private void set(int index, int value) {
+        nodes[index] = value;
+    }
+
+    private int record(Expr expr, int kind, int length) {
+        return record(expr.numeric ? kind | NUMERIC : kind, length);
+    }
+
+    private int constant(Object value) {
+        // Literals are shared by value; cells and declarations only have
+        // identity equality, so each gets an entry of its own.
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+
+        return index;
+    }
+
+    // Tokens are only kept for the line a runtime error reports, so any token
+    // on the same line will do.
+    private int token(Token token) {
+        Integer index = tokenIndex.get(token.line);
+        if (index == null) {
+            index = tokens.size();
+            tokens.add(token);
+            tokenIndex.put(token.line, index);
+        }
+
+        return index;
+    }
+
+    private void statements(int at, List<Statement> stmts) {
+        set(at, stmts.size());
+        for (int i = 0; i < stmts.size(); i++) {
+            set(at + 1 + i, encode(stmts.get(i)));
+        }
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Statement.Expression stmt) {
+        int at = record(EXPRESSION, 2);
+        set(at + 1, encode(stmt.expression));
+        return at;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Statement.Print stmt) {
+        int at = record(PRINT, 2);
+        set(at + 1, encode(stmt.expression));
+        return at;
+    }
+
+    @Override
+    public Integer visitVarStmt(Statement.Var stmt) {
+        int at;
+        if (stmt.slot >= 0) {
+            at = record(DEFINE_LOCAL, 3);
+            set(at + 1, stmt.slot);
+        } else {
+            at = record(DEFINE_GLOBAL, 3);
+            set(at + 1, constant(globals.global(stmt.name.lexeme)));
+        }
+
+        set(at + 2, encodeOrNone(stmt.initializer));
+        return at;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Statement.Block stmt) {
+        int at = record(BLOCK, 3 + stmt.stmts.size());
+        set(at + 1, stmt.slots);
+        statements(at + 2, stmt.stmts);
+        return at;
+    }
+
+    @Override
+    public Integer visitIfStmt(Statement.If stmt) {
+        int at = record(IF, 4);
+        set(at + 1, encode(stmt.condition));
+        set(at + 2, encode(stmt.thenBranch));
+        set(at + 3, encodeOrNone(stmt.elseBranch));
+        return at;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Statement.While stmt) {
+        int at = record(WHILE, 4);
+        loops.put(stmt, at);
+        set(at + 1, encode(stmt.condition));
+        set(at + 2, encode(stmt.body));
+        set(at + 3, encodeOrNone(stmt.increment));
+        return at;
+    }
+
+    @Override
+    public Integer visitBreakStmt(Statement.Break stmt) {
+        int at = record(BREAK, 2);
+        set(at + 1, loops.get(stmt.loop));
+        return at;
+    }
+
+    @Override
+    public Integer visitContinueStmt(Statement.Continue stmt) {
+        int at = record(CONTINUE, 2);
+        set(at + 1, loops.get(stmt.loop));
+        return at;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Statement.Function stmt) {
+        // A body left for the first call is encoded then, into an arena of
+        // its own, and the function keeps the declaration to parse it from.
+        if (stmt.lazy != null) {
+            int at = record(FUNCTION, 5);
+            set(at + 1, stmt.slot);
+            set(at + 2, stmt.slot >= 0 ? -1 : constant(globals.global(stmt.name.lexeme)));
+            set(at + 3, constant(stmt));
+            set(at + 4, -1);
+            return at;
+        }
+
+        int at = record(FUNCTION, 5 + stmt.body.size());
+        set(at + 1, stmt.slot);
+        set(at + 2, stmt.slot >= 0 ? -1 : constant(globals.global(stmt.name.lexeme)));
+
+        // The function only needs the declaration for its name, arity and
+        // frame size; the body lives in the arena.
+        Statement.Function declaration = new Statement.Function(stmt.name, stmt.params,
+                Collections.<Statement>emptyList());
+        declaration.slot = stmt.slot;
+        declaration.slots = stmt.slots;
+        declaration.poolable = stmt.poolable;
+        set(at + 3, constant(declaration));
+
+        statements(at + 4, stmt.body);
+        return at;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Statement.Return stmt) {
+        if (stmt.tailCall) {
+            int at = record(TAIL_CALL, 2);
+            set(at + 1, encode(stmt.value));
+            return at;
+        }
+
+        int at = record(RETURN, 2);
+        set(at + 1, encodeOrNone(stmt.value));
+        return at;
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        int at = record(expr, CONSTANT, 2);
+        set(at + 1, constant(expr.value));
+        return at;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return encode(expr.expression);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            int at = record(expr, NOT, 2);
+            set(at + 1, encode(expr.right));
+            return at;
+        }
+
+        int at = record(expr, NEGATE, 3);
+        set(at + 1, token(expr.operator));
+        set(at + 2, encode(expr.right));
+        return at;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int at = record(expr, binaryKind(expr.operator.type), 4);
+        set(at + 1, token(expr.operator));
+        set(at + 2, encode(expr.left));
+        set(at + 3, encode(expr.right));
+        return at;
+    }
+
+    private static int binaryKind(TokenType type) {
+        switch (type) {
+            case PLUS:
+                return ADD;
+            case MINUS:
+                return SUBTRACT;
+            case STAR:
+                return MULTIPLY;
+            case SLASH:
+                return DIVIDE;
+            case GREATER:
+                return GREATER;
+            case GREATER_EQUAL:
+                return GREATER_EQUAL;
+            case LESS:
+                return LESS;
+            case LESS_EQUAL:
+                return LESS_EQUAL;
+            case EQUAL_EQUAL:
+                return EQUAL;
+            case BANG_EQUAL:
+                return NOT_EQUAL;
+            default:
+                return COMMA;
+        }
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        int at = record(expr, expr.operator.type == TokenType.OR ? OR : AND, 3);
+        set(at + 1, encode(expr.left));
+        set(at + 2, encode(expr.right));
+        return at;
+    }
+
+    @Override
+    public Integer visitTernaryExpr(Expr.Ternary expr) {
+        int at = record(expr, TERNARY, 5);
+        set(at + 1, token(expr.operator));
+        set(at + 2, encode(expr.left));
+        set(at + 3, encode(expr.mid));
+        set(at + 4, encode(expr.right));
+        return at;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            int at = record(expr, GET_LOCAL, 5);
+            set(at + 1, token(expr.name));
+            set(at + 2, expr.depth);
+            set(at + 3, expr.slot);
+            set(at + 4, constant(expr.name.lexeme));
+            return at;
+        }
+
+        int at = record(expr, GET_GLOBAL, 3);
+        set(at + 1, token(expr.name));
+        set(at + 2, constant(globals.global(expr.name.lexeme)));
+        return at;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        if (expr.depth >= 0) {
+            int at = record(expr, SET_LOCAL, 4);
+            set(at + 1, expr.depth);
+            set(at + 2, expr.slot);
+            set(at + 3, encode(expr.value));
+            return at;
+        }
+
+        int at = record(expr, SET_GLOBAL, 4);
+        set(at + 1, token(expr.name));
+        set(at + 2, constant(globals.global(expr.name.lexeme)));
+        set(at + 3, encode(expr.value));
+        return at;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int at = record(expr, CALL, 4 + expr.args.size());
+        set(at + 1, token(expr.paren));
+        set(at + 2, encode(expr.callee));
+        set(at + 3, expr.args.size());
+        for (int i = 0; i < expr.args.size(); i++) {
+            set(at + 4 + i, encode(expr.args.get(i)));
+        }
+        return at;
+    }
+
+    @Override
+    public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+        int at = record(expr, LIST, 2 + expr.elements.size());
+        set(at + 1, expr.elements.size());
+        for (int i = 0; i < expr.elements.size(); i++) {
+            set(at + 2 + i, encode(expr.elements.get(i)));
+        }
+        return at;
+    }
+
+    @Override
+    public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+        int at = record(expr, MAP, 3 + 2 * expr.keys.size());
+        set(at + 1, token(expr.brace));
+        set(at + 2, expr.keys.size());
+        for (int i = 0; i < expr.keys.size(); i++) {
+            set(at + 3 + 2 * i, encode(expr.keys.get(i)));
+            set(at + 4 + 2 * i, encode(expr.values.get(i)));
+        }
+        return at;
+    }
+
+    @Override
+    public Integer visitIndexExpr(Expr.Index expr) {
+        int at = record(expr, GET_INDEX, 4);
+        set(at + 1, token(expr.bracket));
+        set(at + 2, encode(expr.object));
+        set(at + 3, encode(expr.index));
+        return at;
+    }
+
+    @Override
+    public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+        int at = record(expr, SET_INDEX, 5);
+        set(at + 1, token(expr.bracket));
+        set(at + 2, encode(expr.object));
+        set(at + 3, encode(expr.index));
+        set(at + 4, encode(expr.value));
+        return at;
+    }
+}
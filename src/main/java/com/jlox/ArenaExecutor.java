@@ -0,0 +1,520 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static main.java.com.jlox.Arena.*;
+
+// Runs an Arena by walking its records by index. Statements return NORMAL or
+// a jump code naming the loop a break or continue targets, which every
+// enclosing statement passes up until that loop handles it, so loops need no
+// exception at all. Returns still throw a ReturnValue, as LoxFunction expects.
+class ArenaExecutor {
+    private static final int NORMAL = 0;
+
+    private final Interpreter interpreter;
+    private final int[] nodes;
+    private final Object[] constants;
+    private final Token[] tokens;
+    private final int[] program;
+    private final ReturnValue returnValue = new ReturnValue();
+
+    ArenaExecutor(Interpreter interpreter, Arena arena) {
+        this.interpreter = interpreter;
+        this.nodes = arena.nodes;
+        this.constants = arena.constants;
+        this.tokens = arena.tokens;
+        this.program = arena.program;
+    }
+
+    // A function whose body is a run of records in the arena it was
+    // declared in. A body the Parser left for the first call is encoded into
+    // an arena of its own then.
+    private static class ArenaFunction extends LoxFunction {
+        private ArenaExecutor executor;
+        private int record;
+
+        ArenaFunction(Statement.Function declaration, Environment closure, ArenaExecutor executor, int record) {
+            super(declaration, closure);
+            this.executor = executor;
+            this.record = record;
+        }
+
+        @Override
+        void execute(Interpreter interpreter, Environment frame) {
+            if (executor.nodes[record + 4] < 0) {
+                Arena arena = new ArenaEncoder(interpreter.globals)
+                        .encode(Collections.<Statement>singletonList(declaration));
+                executor = new ArenaExecutor(interpreter, arena);
+                record = arena.program[0];
+            }
+
+            executor.executeAll(record + 4, frame);
+        }
+    }
+
+    void interperet() {
+        try {
+            for (int stmt : program) {
+                execute(stmt, interpreter.globals);
+            }
+        } catch (RunTimeError error) {
+            Lox.RunTimeError(error);
+        }
+    }
+
+    private static int jump(int loop, boolean isBreak) {
+        return (loop + 1) << 1 | (isBreak ? 1 : 0);
+    }
+
+    // Runs the statements listed at 'at', a count followed by their indices.
+    private int executeAll(int at, Environment environment) {
+        int count = nodes[at];
+        for (int i = 1; i <= count; i++) {
+            int code = execute(nodes[at + i], environment);
+            if (code != NORMAL)
+                return code;
+        }
+
+        return NORMAL;
+    }
+
+    private int execute(int node, Environment environment) {
+        switch (nodes[node]) {
+            case EXPRESSION:
+                evaluate(nodes[node + 1], environment);
+                return NORMAL;
+            case PRINT:
+                interpreter.output.println(evaluate(nodes[node + 1], environment));
+                return NORMAL;
+            case DEFINE_LOCAL: {
+                int initializer = nodes[node + 2];
+                environment.defineAt(nodes[node + 1], initializer < 0 ? null : evaluate(initializer, environment));
+                return NORMAL;
+            }
+            case DEFINE_GLOBAL: {
+                int initializer = nodes[node + 2];
+                Object value = initializer < 0 ? null : evaluate(initializer, environment);
+                ((Global) constants[nodes[node + 1]]).define(value);
+                return NORMAL;
+            }
+            case BLOCK:
+                return executeAll(node + 2, new Environment(environment, nodes[node + 1]));
+            case IF:
+                if (Interpreter.verisimilitude(evaluate(nodes[node + 1], environment)))
+                    return execute(nodes[node + 2], environment);
+                if (nodes[node + 3] >= 0)
+                    return execute(nodes[node + 3], environment);
+                return NORMAL;
+            case WHILE:
+                return executeWhile(node, environment);
+            case BREAK:
+                return jump(nodes[node + 1], true);
+            case CONTINUE:
+                return jump(nodes[node + 1], false);
+            case FUNCTION: {
+                Statement.Function declaration = (Statement.Function) constants[nodes[node + 3]];
+                ArenaFunction function = new ArenaFunction(declaration, environment, this, node);
+                if (nodes[node + 1] >= 0) {
+                    environment.defineAt(nodes[node + 1], function);
+                } else {
+                    ((Global) constants[nodes[node + 2]]).define(function);
+                }
+                return NORMAL;
+            }
+            case RETURN: {
+                int value = nodes[node + 1];
+                throw returnValue.value(value < 0 ? null : evaluate(value, environment));
+            }
+            case TAIL_CALL:
+                throw tailCall(nodes[node + 1], environment);
+        }
+
+        throw new IllegalStateException("Bad record " + nodes[node] + " at " + node + ".");
+    }
+
+    private int executeWhile(int node, Environment environment) {
+        int condition = nodes[node + 1];
+        int body = nodes[node + 2];
+        int increment = nodes[node + 3];
+        int mine = node + 1;
+
+        while (Interpreter.verisimilitude(evaluate(condition, environment))) {
+            int code = execute(body, environment);
+            if (code != NORMAL) {
+                if (code >> 1 != mine)
+                    return code;
+                if ((code & 1) != 0)
+                    break;
+            }
+
+            if (increment >= 0) {
+                evaluate(increment, environment);
+            }
+        }
+
+        return NORMAL;
+    }
+
+    // See Interpreter.tailCall().
+    private ReturnValue tailCall(int call, Environment environment) {
+        Object callee = evaluate(nodes[call + 2], environment);
+        int count = nodes[call + 3];
+
+        if (callee instanceof LoxFunction && ((LoxFunction) callee).arity() == count) {
+            LoxFunction function = (LoxFunction) callee;
+            Environment frame = function.frame();
+            for (int i = 0; i < count; i++) {
+                frame.defineAt(i, evaluate(nodes[call + 4 + i], environment));
+            }
+
+            return returnValue.tailCall(function, frame);
+        }
+
+        return returnValue.value(Interpreter.call(interpreter, tokens[nodes[call + 1]], callee,
+                arguments(call, count, environment)));
+    }
+
+    private List<Object> arguments(int call, int count, Environment environment) {
+        List<Object> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            args.add(evaluate(nodes[call + 4 + i], environment));
+        }
+
+        return args;
+    }
+
+    // Kept small, with the work in one method per kind, so that the JIT can
+    // inline it into its callers.
+    private Object evaluate(int node, Environment environment) {
+        int header = nodes[node];
+        if ((header & NUMERIC) != 0)
+            return header == (CONSTANT | NUMERIC) ? constants[nodes[node + 1]] : Numbers.box(number(node, environment));
+
+        switch (header) {
+            case CONSTANT:
+                return constants[nodes[node + 1]];
+            case NOT:
+                return !Interpreter.verisimilitude(evaluate(nodes[node + 1], environment));
+            case NEGATE:
+                return negate(node, environment);
+            case ADD:
+                return add(node, environment);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return compare(node, environment);
+            case EQUAL:
+                return equal(node, environment);
+            case NOT_EQUAL:
+                return !equal(node, environment);
+            case COMMA:
+                evaluate(nodes[node + 2], environment);
+                evaluate(nodes[node + 3], environment);
+                return null;
+            case AND:
+            case OR:
+                return logical(node, environment);
+            case TERNARY:
+                return evaluate(branch(node, environment), environment);
+            case GET_LOCAL:
+                return getLocal(node, environment);
+            case GET_GLOBAL:
+                return getGlobal(node);
+            case SET_LOCAL:
+                return setLocal(node, environment);
+            case SET_GLOBAL:
+                return setGlobal(node, environment);
+            case CALL:
+                return call(node, environment);
+            case LIST:
+                return list(node, environment);
+            case MAP:
+                return map(node, environment);
+            case GET_INDEX: {
+                Object list = evaluate(nodes[node + 2], environment);
+                return Interpreter.getIndex(tokens[nodes[node + 1]], list, evaluate(nodes[node + 3], environment));
+            }
+            case SET_INDEX:
+                return setIndex(node, environment);
+        }
+
+        throw new IllegalStateException("Bad record " + header + " at " + node + ".");
+    }
+
+    private Object negate(int node, Environment environment) {
+        Object right = evaluate(nodes[node + 2], environment);
+        if (right instanceof Integer)
+            return Numbers.negate((int) right);
+        Interpreter.checkNumberOperand(tokens[nodes[node + 1]], right);
+        return -(double) right;
+    }
+
+    private Object add(int node, Environment environment) {
+        Object left = evaluate(nodes[node + 2], environment);
+        Object right = evaluate(nodes[node + 3], environment);
+        if (left instanceof Integer && right instanceof Integer)
+            return Numbers.add((int) left, (int) right);
+        if (Numbers.isNumber(left) && Numbers.isNumber(right))
+            return Numbers.toDouble(left) + Numbers.toDouble(right);
+        if (left instanceof CharSequence && right instanceof CharSequence)
+            return LoxString.concat((CharSequence) left, (CharSequence) right);
+
+        throw new RunTimeError(tokens[nodes[node + 1]], "Operands must both be numbers or strings.");
+    }
+
+    private boolean equal(int node, Environment environment) {
+        Object left = evaluate(nodes[node + 2], environment);
+        return Interpreter.isEqual(left, evaluate(nodes[node + 3], environment));
+    }
+
+    private Object logical(int node, Environment environment) {
+        Object left = evaluate(nodes[node + 1], environment);
+        if (Interpreter.verisimilitude(left) == (nodes[node] == OR))
+            return left;
+        return evaluate(nodes[node + 2], environment);
+    }
+
+    private Object getLocal(int node, Environment environment) {
+        Object value = environment.getAt(nodes[node + 2], nodes[node + 3]);
+        return value != null ? value : uninitialized(node, (String) constants[nodes[node + 4]]);
+    }
+
+    private Object getGlobal(int node) {
+        Global global = (Global) constants[nodes[node + 2]];
+        Object value = global.get(tokens[nodes[node + 1]]);
+        return value != null ? value : uninitialized(node, global.name);
+    }
+
+    private Object setLocal(int node, Environment environment) {
+        Object value = evaluate(nodes[node + 3], environment);
+        environment.assignAt(nodes[node + 1], nodes[node + 2], value);
+        return value;
+    }
+
+    private Object setGlobal(int node, Environment environment) {
+        Object value = evaluate(nodes[node + 3], environment);
+        ((Global) constants[nodes[node + 2]]).assign(tokens[nodes[node + 1]], value);
+        return value;
+    }
+
+    private Object uninitialized(int node, String name) {
+        throw new RunTimeError(tokens[nodes[node + 1]], "Cannot access uninitialized variable '" + name + "'.");
+    }
+
+    private Object call(int node, Environment environment) {
+        Token paren = tokens[nodes[node + 1]];
+        Object callee = evaluate(nodes[node + 2], environment);
+        int count = nodes[node + 3];
+
+        switch (count) {
+            case 0:
+                return Interpreter.call0(interpreter, paren, callee);
+            case 1:
+                return Interpreter.call1(interpreter, paren, callee, evaluate(nodes[node + 4], environment));
+            case 2: {
+                Object arg0 = evaluate(nodes[node + 4], environment);
+                return Interpreter.call2(interpreter, paren, callee, arg0, evaluate(nodes[node + 5], environment));
+            }
+        }
+
+        return Interpreter.call(interpreter, paren, callee, arguments(node, count, environment));
+    }
+
+    private LoxList list(int node, Environment environment) {
+        int count = nodes[node + 1];
+        LoxList list = new LoxList(count);
+        for (int i = 0; i < count; i++) {
+            int element = nodes[node + 2 + i];
+            if ((nodes[element] & NUMERIC) != 0) {
+                list.add(number(element, environment));
+            } else {
+                list.add(evaluate(element, environment));
+            }
+        }
+
+        return list;
+    }
+
+    private LoxMap map(int node, Environment environment) {
+        Token brace = tokens[nodes[node + 1]];
+        int count = nodes[node + 2];
+        LoxMap map = new LoxMap(count);
+        for (int i = 0; i < count; i++) {
+            Object key = Interpreter.key(brace, evaluate(nodes[node + 3 + 2 * i], environment));
+            map.put(key, evaluate(nodes[node + 4 + 2 * i], environment));
+        }
+
+        return map;
+    }
+
+    private Object setIndex(int node, Environment environment) {
+        Token bracket = tokens[nodes[node + 1]];
+        Object object = evaluate(nodes[node + 2], environment);
+        Object index = evaluate(nodes[node + 3], environment);
+        int valueNode = nodes[node + 4];
+        if ((nodes[valueNode] & NUMERIC) != 0 && object instanceof LoxList) {
+            double value = number(valueNode, environment);
+            LoxList list = (LoxList) object;
+            list.set(Interpreter.index(bracket, list, index), value);
+            return Numbers.box(value);
+        }
+
+        return Interpreter.setIndex(bracket, object, index, evaluate(valueNode, environment));
+    }
+
+    // The branch of a ternary its condition picks.
+    private int branch(int node, Environment environment) {
+        Object left = evaluate(nodes[node + 2], environment);
+        if (left instanceof Boolean)
+            return (boolean) left ? nodes[node + 3] : nodes[node + 4];
+
+        throw new RunTimeError(tokens[nodes[node + 1]],
+                " The left expression in ternary operator must return a boolean value.");
+    }
+
+    // Primitive path for records flagged NUMERIC, as in
+    // Interpreter.evaluateDouble().
+    private double number(int node, Environment environment) {
+        switch (nodes[node] & KIND) {
+            case CONSTANT:
+                return Numbers.toDouble(constants[nodes[node + 1]]);
+            case NEGATE: {
+                int right = nodes[node + 2];
+                if ((nodes[right] & NUMERIC) != 0)
+                    return -number(right, environment);
+
+                Object value = evaluate(right, environment);
+                Interpreter.checkNumberOperand(tokens[nodes[node + 1]], value);
+                return -Numbers.toDouble(value);
+            }
+            case ADD:
+            case SUBTRACT:
+            case MULTIPLY:
+            case DIVIDE:
+                return arithmetic(node, environment);
+            case TERNARY:
+                return number(branch(node, environment), environment);
+        }
+
+        throw new IllegalStateException("Bad numeric record " + nodes[node] + " at " + node + ".");
+    }
+
+    // Both operands are evaluated before either is checked, as in the tree
+    // interpreter.
+    private double arithmetic(int node, Environment environment) {
+        int leftNode = nodes[node + 2];
+        double left;
+        double right;
+
+        if ((nodes[leftNode] & NUMERIC) != 0) {
+            left = number(leftNode, environment);
+            right = operand(node, environment);
+        } else if (nodes[leftNode] == GET_INDEX) {
+            // An element is read before the right side runs, which may
+            // change it.
+            Token bracket = tokens[nodes[leftNode + 1]];
+            Object object = evaluate(nodes[leftNode + 2], environment);
+            Object key = evaluate(nodes[leftNode + 3], environment);
+            if (object instanceof LoxList && ((LoxList) object).numeric()) {
+                left = ((LoxList) object).number(Interpreter.index(bracket, (LoxList) object, key));
+                right = operand(node, environment);
+            } else {
+                Object value = Interpreter.getIndex(bracket, object, key);
+                right = operand(node, environment);
+                left = numberOperand(node, value);
+            }
+        } else {
+            Object value = evaluate(leftNode, environment);
+            right = operand(node, environment);
+            left = numberOperand(node, value);
+        }
+
+        switch (nodes[node] & KIND) {
+            case SUBTRACT:
+                return left - right;
+            case MULTIPLY:
+                return left * right;
+            case DIVIDE:
+                return left / right;
+            default:
+                return left + right;
+        }
+    }
+
+    private boolean compare(int node, Environment environment) {
+        int leftNode = nodes[node + 2];
+        double left;
+        double right;
+
+        if ((nodes[leftNode] & NUMERIC) != 0) {
+            left = number(leftNode, environment);
+            right = operand(node, environment);
+        } else {
+            Object value = evaluate(leftNode, environment);
+            int rightNode = nodes[node + 3];
+            // Two Integers, e.g. a loop index and its bound, are compared as
+            // they are.
+            if ((nodes[rightNode] & NUMERIC) == 0 || nodes[rightNode] == (CONSTANT | NUMERIC)) {
+                Object other = evaluate(rightNode, environment);
+                if (value instanceof Integer && other instanceof Integer)
+                    return compare(nodes[node] & KIND, (int) value, (int) other);
+                right = numberOperand(node, other);
+            } else {
+                right = number(rightNode, environment);
+            }
+            left = numberOperand(node, value);
+        }
+
+        switch (nodes[node] & KIND) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    private static boolean compare(int kind, int left, int right) {
+        switch (kind) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    // The right operand of a numeric operator, unboxed. An element of a list
+    // that holds only numbers is read from its storage without boxing.
+    private double operand(int node, Environment environment) {
+        int right = nodes[node + 3];
+        if ((nodes[right] & NUMERIC) != 0)
+            return number(right, environment);
+
+        if (nodes[right] == GET_INDEX) {
+            Token bracket = tokens[nodes[right + 1]];
+            Object object = evaluate(nodes[right + 2], environment);
+            Object key = evaluate(nodes[right + 3], environment);
+            if (object instanceof LoxList && ((LoxList) object).numeric())
+                return ((LoxList) object).number(Interpreter.index(bracket, (LoxList) object, key));
+            return numberOperand(node, Interpreter.getIndex(bracket, object, key));
+        }
+
+        return numberOperand(node, evaluate(right, environment));
+    }
+
+    private double numberOperand(int node, Object value) {
+        if (Numbers.isNumber(value))
+            return Numbers.toDouble(value);
+        throw new RunTimeError(tokens[nodes[node + 1]], "Operands must be a number.");
+    }
+}
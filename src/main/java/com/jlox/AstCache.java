@@ -0,0 +1,708 @@
+package main.java.com.jlox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Parsed scripts kept on disk under the SHA-256 of their source, so running an
+// unchanged script again skips the Scanner and the Parser. Only the tree as
+// the Parser left it is stored; the Resolver and the Optimizer run on it as
+// usual. An entry whose header, hash or checksum does not match, or that fails
+// to read back, is treated as missing and written again.
+//
+// An entry is a header (magic, format, source hash, payload length and CRC32)
+// followed by the payload: every string once, then the tree in prefix order
+// with strings referred to by index and numbers as varints.
+class AstCache {
+    static boolean enabled = true;
+    static Path directory = Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+
+    private static final int MAGIC = 0x4a4c5841; // "JLXA"
+    // Bump whenever the encoding or the tree classes change.
+    private static final int FORMAT = 3;
+    private static final int HEADER = 4 + 4 + 32 + 4 + 4;
+
+    private static final int NULL = 0;
+
+    private static final int BINARY = 1;
+    private static final int TERNARY = 2;
+    private static final int GROUPING = 3;
+    private static final int LITERAL = 4;
+    private static final int UNARY = 5;
+    private static final int VARIABLE = 6;
+    private static final int ASSIGN = 7;
+    private static final int LOGICAL = 8;
+    private static final int CALL = 9;
+
+    private static final int EXPRESSION = 10;
+    private static final int PRINT = 11;
+    private static final int VAR = 12;
+    private static final int BLOCK = 13;
+    private static final int IF = 14;
+    private static final int WHILE = 15;
+    private static final int BREAK = 16;
+    private static final int CONTINUE = 17;
+    private static final int FUNCTION = 18;
+    private static final int RETURN = 19;
+
+    private static final int LIST = 20;
+    private static final int INDEX = 21;
+    private static final int SET_INDEX = 22;
+    private static final int MAP = 23;
+
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+    private static final int INTEGER = 5;
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    static byte[] hash(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The statements cached for this source hash, or null.
+    static List<Statement> load(byte[] hash) {
+        Path path = path(hash);
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try {
+            byte[] entry = Files.readAllBytes(path);
+            if (entry.length < HEADER)
+                return null;
+
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(entry, 0, HEADER));
+            if (header.readInt() != MAGIC || header.readInt() != FORMAT)
+                return null;
+
+            byte[] stored = new byte[32];
+            header.readFully(stored);
+            int length = header.readInt();
+            int checksum = header.readInt();
+            if (!Arrays.equals(stored, hash) || length != entry.length - HEADER)
+                return null;
+
+            CRC32 crc = new CRC32();
+            crc.update(entry, HEADER, length);
+            if ((int) crc.getValue() != checksum)
+                return null;
+
+            return new Reader(new DataInputStream(new ByteArrayInputStream(entry, HEADER, length))).read();
+        } catch (IOException | RuntimeException e) {
+            // Unreadable entries are rebuilt like missing ones.
+            return null;
+        }
+    }
+
+    static void store(byte[] hash, List<Statement> statements) {
+        try {
+            byte[] payload = new Writer().write(statements);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + payload.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.write(hash);
+            out.writeInt(payload.length);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+
+            // Written aside and moved into place, so a reader never sees half
+            // an entry.
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                Files.move(temp, path(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            // The cache is only an optimization; a script still runs without it.
+        }
+    }
+
+    private static Path path(byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16));
+            name.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return directory.resolve(name.append(".ast").toString());
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Statement.Visitor<Void> {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> table = new ArrayList<>();
+        private final ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(tree);
+        private int line = 0;
+
+        byte[] write(List<Statement> statements) throws IOException {
+            statements(statements);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(tree.size() + table.size() * 8);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            writeVarint(payload, table.size());
+            for (String string : table) {
+                byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                writeVarint(payload, utf8.length);
+                payload.write(utf8);
+            }
+            tree.writeTo(payload);
+
+            return bytes.toByteArray();
+        }
+
+        private void statements(List<Statement> statements) {
+            varint(statements.size());
+            for (Statement statement : statements) {
+                statement(statement);
+            }
+        }
+
+        private void statement(Statement statement) {
+            if (statement == null) {
+                tag(NULL);
+            } else {
+                statement.accept(this);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                tag(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void token(Token token) {
+            if (token == null) {
+                tag(NULL);
+                return;
+            }
+
+            // Shifted by one so that zero is left for null. Literals have been
+            // copied into Literal nodes, and lines mostly repeat, so only the
+            // change from the last token's line is kept.
+            tag(token.type.ordinal() + 1);
+            string(token.lexeme);
+            int delta = token.line - line;
+            varint((delta << 1) ^ (delta >> 31));
+            line = token.line;
+        }
+
+        private void value(Object value) {
+            if (value == null) {
+                tag(NULL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean) value ? TRUE : FALSE);
+            } else if (Numbers.isNumber(value)) {
+                // Most numbers in scripts are small whole ones.
+                double number = Numbers.toDouble(value);
+                int integer = (int) number;
+                if (integer == number && integer >= 0 && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO) {
+                    tag(INTEGER);
+                    varint(integer);
+                    return;
+                }
+
+                tag(NUMBER);
+                try {
+                    out.writeDouble(number);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                tag(STRING);
+                string((String) value);
+            }
+        }
+
+        private void string(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = table.size();
+                strings.put(string, index);
+                table.add(string);
+            }
+
+            varint(index);
+        }
+
+        private void tag(int tag) {
+            tree.write(tag);
+        }
+
+        private void varint(int value) {
+            try {
+                writeVarint(out, value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            tag(TERNARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.mid);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            varint(expr.args.size());
+            for (Expr arg : expr.args) {
+                expr(arg);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+            tag(LIST);
+            token(expr.bracket);
+            varint(expr.elements.size());
+            for (Expr element : expr.elements) {
+                expr(element);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+            tag(MAP);
+            token(expr.brace);
+            varint(expr.keys.size());
+            for (int i = 0; i < expr.keys.size(); i++) {
+                expr(expr.keys.get(i));
+                expr(expr.values.get(i));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            tag(INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            return null;
+        }
+
+        @Override
+        public Void visitSetIndexExpr(Expr.SetIndex expr) {
+            tag(SET_INDEX);
+            expr(expr.object);
+            token(expr.bracket);
+            expr(expr.index);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Statement.Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Statement.Print stmt) {
+            tag(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Statement.Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Statement.Block stmt) {
+            tag(BLOCK);
+            statements(stmt.stmts);
+            varint(stmt.loopDepth);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Statement.If stmt) {
+            tag(IF);
+            expr(stmt.condition);
+            statement(stmt.thenBranch);
+            statement(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Statement.While stmt) {
+            tag(WHILE);
+            expr(stmt.condition);
+            statement(stmt.body);
+            expr(stmt.increment);
+            token(stmt.label);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Statement.Break stmt) {
+            tag(BREAK);
+            token(stmt.keyword);
+            token(stmt.label);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Statement.Continue stmt) {
+            tag(CONTINUE);
+            token(stmt.keyword);
+            token(stmt.label);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Statement.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            varint(stmt.params.size());
+            for (Token param : stmt.params) {
+                token(param);
+            }
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Statement.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private String[] strings;
+        private int line = 0;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Statement> read() throws IOException {
+            strings = new String[count()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[count()];
+                in.readFully(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            List<Statement> statements = statements();
+            if (in.read() != -1)
+                throw new IOException("Trailing bytes in cache entry.");
+
+            return statements;
+        }
+
+        private List<Statement> statements() throws IOException {
+            int count = count();
+            List<Statement> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+
+            return statements;
+        }
+
+        private Statement statement() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case EXPRESSION:
+                    return new Statement.Expression(expr());
+                case PRINT:
+                    return new Statement.Print(expr());
+                case VAR: {
+                    Token name = token();
+                    return new Statement.Var(name, expr());
+                }
+                case BLOCK: {
+                    List<Statement> stmts = statements();
+                    return new Statement.Block(stmts, readVarint(in));
+                }
+                case IF: {
+                    Expr condition = expr();
+                    Statement thenBranch = statement();
+                    return new Statement.If(condition, thenBranch, statement());
+                }
+                case WHILE: {
+                    Expr condition = expr();
+                    Statement body = statement();
+                    Expr increment = expr();
+                    return new Statement.While(condition, body, increment, token());
+                }
+                case BREAK: {
+                    Token keyword = token();
+                    return new Statement.Break(keyword, token());
+                }
+                case CONTINUE: {
+                    Token keyword = token();
+                    return new Statement.Continue(keyword, token());
+                }
+                case FUNCTION: {
+                    Token name = token();
+                    int count = count();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(token());
+                    }
+                    return new Statement.Function(name, params, statements());
+                }
+                case RETURN: {
+                    Token keyword = token();
+                    return new Statement.Return(keyword, expr());
+                }
+            }
+
+            throw new IOException("Bad statement tag " + tag + " in cache entry.");
+        }
+
+        private Expr expr() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BINARY: {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case TERNARY: {
+                    Expr left = expr();
+                    Token operator = token();
+                    Expr mid = expr();
+                    return new Expr.Ternary(left, operator, mid, expr());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case LITERAL:
+                    return new Expr.Literal(value());
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case VARIABLE:
+                    return new Expr.Variable(token());
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expr());
+                }
+                case LOGICAL: {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case CALL: {
+                    Expr callee = expr();
+                    Token paren = token();
+                    int count = count();
+                    List<Expr> args = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        args.add(expr());
+                    }
+                    return new Expr.Call(callee, paren, args);
+                }
+                case LIST: {
+                    Token bracket = token();
+                    int count = count();
+                    List<Expr> elements = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        elements.add(expr());
+                    }
+                    return new Expr.ListLiteral(bracket, elements);
+                }
+                case MAP: {
+                    Token brace = token();
+                    int count = count();
+                    List<Expr> keys = new ArrayList<>(count);
+                    List<Expr> values = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        keys.add(expr());
+                        values.add(expr());
+                    }
+                    return new Expr.MapLiteral(brace, keys, values);
+                }
+                case INDEX: {
+                    Expr object = expr();
+                    Token bracket = token();
+                    return new Expr.Index(object, bracket, expr());
+                }
+                case SET_INDEX: {
+                    Expr object = expr();
+                    Token bracket = token();
+                    Expr index = expr();
+                    return new Expr.SetIndex(object, bracket, index, expr());
+                }
+            }
+
+            throw new IOException("Bad expression tag " + tag + " in cache entry.");
+        }
+
+        // A length or count, which can never be more than the bytes left.
+        private int count() throws IOException {
+            int count = readVarint(in);
+            if (count < 0 || count > in.available())
+                throw new IOException("Bad count in cache entry.");
+            return count;
+        }
+
+        private Token token() throws IOException {
+            int tag = in.readUnsignedByte();
+            if (tag == NULL)
+                return null;
+
+            TokenType type = TYPES[tag - 1];
+            String lexeme = strings[readVarint(in)];
+            int delta = readVarint(in);
+            line += (delta >>> 1) ^ -(delta & 1);
+            return new Token(type, lexeme, null, line);
+        }
+
+        private Object value() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case FALSE:
+                    return false;
+                case TRUE:
+                    return true;
+                case NUMBER:
+                    return in.readDouble();
+                case INTEGER:
+                    return Numbers.box(readVarint(in));
+                case STRING:
+                    return strings[readVarint(in)];
+            }
+
+            throw new IOException("Bad value tag " + tag + " in cache entry.");
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Bad varint in cache entry.");
+    }
+}
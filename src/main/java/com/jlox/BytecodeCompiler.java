@@ -0,0 +1,476 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+// Lowers resolved statements into a Chunk for the VM. Locals are flattened into
+// one array per chunk: every block gets a base offset and its resolved slots
+// are laid out after it, so a (depth, slot) pair becomes a single index.
+class BytecodeCompiler implements Expr.Visitor<Void>, Statement.Visitor<Void> {
+    // Pending forward jumps of the 'break' and 'continue' statements that
+    // target a loop that is still being compiled.
+    private static class Loop {
+        final Statement.While stmt;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+
+        Loop(Statement.While stmt) {
+            this.stmt = stmt;
+        }
+    }
+
+    private final Chunk chunk = new Chunk();
+    private final Environment globals;
+    private final Stack<Integer> blockBases = new Stack<>();
+    private final Stack<Loop> loops = new Stack<>();
+
+    private int localTop = 0;
+    private int stackDepth = 0;
+    private Token lastToken;
+
+    BytecodeCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    // Functions, lists and maps have no bytecode form yet. A program that uses one is
+    // not compiled at all and compile() returns null so it can be run
+    // elsewhere; unsupported() then names what it used.
+    private static class Unsupported extends RuntimeException {
+        Unsupported(String what) {
+            super(what, null, false, false);
+        }
+    }
+
+    private String unsupported;
+
+    Chunk compile(List<Statement> stmts) {
+        try {
+            for (Statement stmt : stmts) {
+                compile(stmt);
+            }
+        } catch (Unsupported e) {
+            unsupported = e.getMessage();
+            return null;
+        }
+
+        emit(OpCode.RETURN, null);
+        return chunk;
+    }
+
+    String unsupported() {
+        return unsupported;
+    }
+
+    private void compile(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void emit(byte op, Token token) {
+        if (token != null)
+            lastToken = token;
+        chunk.write(op, token);
+    }
+
+    private void emit(byte op, int operand, Token token) {
+        emit(op, token);
+        chunk.writeShort(operand, token);
+    }
+
+    // Keeps track of the operand stack height so the VM can size its stack.
+    private void adjustStack(int delta) {
+        stackDepth += delta;
+        if (stackDepth > chunk.maxStack)
+            chunk.maxStack = stackDepth;
+    }
+
+    private void emitConstant(Object value, Token token) {
+        int index = chunk.addConstant(value);
+        if (index > 0xffff) {
+            error("Too many constants in one chunk.");
+        }
+
+        emit(OpCode.CONSTANT, index, token);
+        adjustStack(1);
+    }
+
+    private int emitJump(byte op) {
+        emit(op, null);
+        chunk.writeShort(0xffff, null);
+        return chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+
+        chunk.patchShort(offset, jump);
+    }
+
+    private void patchJumps(List<Integer> offsets) {
+        for (int offset : offsets) {
+            patchJump(offset);
+        }
+    }
+
+    private void emitLoop(int start) {
+        emit(OpCode.LOOP, null);
+
+        int offset = chunk.count - start + 2;
+        if (offset > 0xffff) {
+            error("Loop body too large.");
+        }
+
+        chunk.writeShort(offset, null);
+    }
+
+    private void error(String message) {
+        if (lastToken != null) {
+            Lox.error(lastToken, message);
+        } else {
+            Lox.error(0, message);
+        }
+    }
+
+    // Globals are bound to their cells at compile time; the cell sits in the
+    // constant pool so the VM reaches it without a name lookup.
+    private int globalIndex(Token name) {
+        int index = chunk.addConstant(globals.global(name.lexeme));
+        if (index > 0xffff) {
+            error("Too many constants in one chunk.");
+        }
+
+        return index;
+    }
+
+    private int localIndex(int depth, int slot) {
+        return blockBases.get(blockBases.size() - 1 - depth) + slot;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Statement.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, null);
+        adjustStack(-1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Statement.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, null);
+        adjustStack(-1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, stmt.name);
+            adjustStack(1);
+        }
+
+        if (stmt.slot >= 0) {
+            emit(OpCode.DEFINE_LOCAL, localIndex(0, stmt.slot), stmt.name);
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, globalIndex(stmt.name), stmt.name);
+        }
+        adjustStack(-1);
+
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt) {
+        blockBases.push(localTop);
+        localTop += stmt.slots;
+        if (localTop > chunk.maxLocals)
+            chunk.maxLocals = localTop;
+
+        for (Statement statement : stmt.stmts) {
+            compile(statement);
+        }
+
+        localTop = blockBases.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt) {
+        compile(stmt.condition);
+
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        adjustStack(-1);
+        compile(stmt.thenBranch);
+        int endJump = emitJump(OpCode.JUMP);
+
+        // The else branch starts with the condition still on the stack.
+        patchJump(elseJump);
+        emit(OpCode.POP, null);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt) {
+        int loopStart = chunk.count;
+        Loop loop = new Loop(stmt);
+        loops.push(loop);
+
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        adjustStack(-1);
+        compile(stmt.body);
+
+        patchJumps(loop.continueJumps);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP, null);
+            adjustStack(-1);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP, null);
+        patchJumps(loop.breakJumps);
+        loops.pop();
+        return null;
+    }
+
+    // Statements leave the operand stack empty, so leaving a loop is a plain
+    // jump; block locals need no cleanup since they live in the flat array.
+    private Loop loopFor(Statement.While target) {
+        for (int i = loops.size() - 1; i >= 0; i--) {
+            if (loops.get(i).stmt == target)
+                return loops.get(i);
+        }
+
+        throw new IllegalStateException("Unresolved loop target.");
+    }
+
+    @Override
+    public Void visitBreakStmt(Statement.Break stmt) {
+        loopFor(stmt.loop).breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Statement.Continue stmt) {
+        loopFor(stmt.loop).continueJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt) {
+        throw new Unsupported("functions");
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, null);
+            adjustStack(1);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, null);
+            adjustStack(1);
+        } else {
+            emitConstant(expr.value, null);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            emit(OpCode.GET_LOCAL, localIndex(expr.depth, expr.slot), expr.name);
+        } else {
+            emit(OpCode.GET_GLOBAL, globalIndex(expr.name), expr.name);
+        }
+        adjustStack(1);
+
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        if (expr.depth >= 0) {
+            emit(OpCode.SET_LOCAL, localIndex(expr.depth, expr.slot), expr.name);
+        } else {
+            emit(OpCode.SET_GLOBAL, globalIndex(expr.name), expr.name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG:
+                emit(OpCode.NOT, expr.operator);
+                break;
+            case MINUS:
+                emit(OpCode.NEGATE, expr.operator);
+                break;
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                emit(OpCode.SUBTRACT, expr.operator);
+                break;
+            case GREATER:
+                emit(OpCode.GREATER, expr.operator);
+                break;
+            case GREATER_EQUAL:
+                emit(OpCode.GREATER_EQUAL, expr.operator);
+                break;
+            case LESS:
+                emit(OpCode.LESS, expr.operator);
+                break;
+            case LESS_EQUAL:
+                emit(OpCode.LESS_EQUAL, expr.operator);
+                break;
+            case BANG_EQUAL:
+                emit(OpCode.NOT_EQUAL, expr.operator);
+                break;
+            case EQUAL_EQUAL:
+                emit(OpCode.EQUAL, expr.operator);
+                break;
+            case PLUS:
+                emit(OpCode.ADD, expr.operator);
+                break;
+            case SLASH:
+                emit(OpCode.DIVIDE, expr.operator);
+                break;
+            case STAR:
+                emit(OpCode.MULTIPLY, expr.operator);
+                break;
+            default:
+                // Anything else evaluates both sides and yields nil, as in the
+                // tree walker.
+                emit(OpCode.POP, null);
+                emit(OpCode.POP, null);
+                emit(OpCode.NIL, null);
+                adjustStack(-1);
+                return null;
+        }
+        adjustStack(-1);
+
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.left);
+        emit(OpCode.CHECK_BOOLEAN, expr.operator);
+
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, null);
+        adjustStack(-1);
+        compile(expr.mid);
+        int endJump = emitJump(OpCode.JUMP);
+
+        patchJump(elseJump);
+        emit(OpCode.POP, null);
+        adjustStack(-1);
+        compile(expr.right);
+
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emit(OpCode.POP, null);
+            adjustStack(-1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP, null);
+            adjustStack(-1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr arg : expr.args) {
+            compile(arg);
+        }
+
+        emit(OpCode.CALL, expr.paren);
+        chunk.write((byte) expr.args.size(), expr.paren);
+        adjustStack(-expr.args.size());
+
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        throw new Unsupported("lists");
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        throw new Unsupported("maps");
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        throw new Unsupported("lists and maps");
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        throw new Unsupported("lists and maps");
+    }
+}
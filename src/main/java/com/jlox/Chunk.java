@@ -0,0 +1,53 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled program for the VM: the instruction stream, its constant pool and
+// the token each instruction came from, which is what runtime errors report.
+class Chunk {
+    byte[] code = new byte[256];
+    Token[] tokens = new Token[256];
+    int count = 0;
+
+    final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    int maxStack = 0;
+    int maxLocals = 0;
+
+    void write(byte b, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+
+        code[count] = b;
+        tokens[count] = token;
+        count++;
+    }
+
+    void writeShort(int value, Token token) {
+        write((byte) ((value >> 8) & 0xff), token);
+        write((byte) (value & 0xff), token);
+    }
+
+    void patchShort(int offset, int value) {
+        code[offset] = (byte) ((value >> 8) & 0xff);
+        code[offset + 1] = (byte) (value & 0xff);
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,259 @@
+package main.java.com.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Just enough of a class file writer for the LoopCompiler: one final class with
+// a single static method. It emits version 49 (Java 5) class files so that the
+// JVM verifies them by type inference and no StackMapTable has to be computed.
+class ClassAssembler {
+    static final int ALOAD_0 = 0x2a;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int DALOAD = 0x31;
+    static final int DSTORE = 0x39;
+    static final int DASTORE = 0x52;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int LCMP = 0x94;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int GOTO = 0xa7;
+    static final int RETURN = 0xb1;
+    static final int INVOKESTATIC = 0xb8;
+    static final int WIDE = 0xc4;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<Object, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+
+    int utf8(String value) {
+        Integer index = poolIndex.get("utf8:" + value);
+        if (index != null)
+            return index;
+
+        try {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        poolIndex.put("utf8:" + value, poolCount);
+        return poolCount++;
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        Integer index = poolIndex.get("class:" + internalName);
+        if (index != null)
+            return index;
+
+        try {
+            poolOut.writeByte(7);
+            poolOut.writeShort(name);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        poolIndex.put("class:" + internalName, poolCount);
+        return poolCount++;
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        String key = "method:" + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index != null)
+            return index;
+
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+
+        try {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+            int nameAndType = poolCount++;
+
+            poolOut.writeByte(10);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int doubleConstant(double value) {
+        // Keyed by bits so that 0.0 and -0.0 stay distinct.
+        String key = "double:" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndex.get(key);
+        if (index != null)
+            return index;
+
+        try {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        poolIndex.put(key, poolCount);
+        int result = poolCount;
+        // Doubles take up two constant pool entries.
+        poolCount += 2;
+        return result;
+    }
+
+    int position() {
+        return length;
+    }
+
+    // Every emitted instruction states how it changes the operand stack height
+    // (in slots) so the method's max_stack can be written out at the end.
+    void op(int opcode, int stackDelta) {
+        put(opcode);
+        adjustStack(stackDelta);
+    }
+
+    void opByte(int opcode, int operand, int stackDelta) {
+        put(opcode);
+        put(operand);
+        adjustStack(stackDelta);
+    }
+
+    void opShort(int opcode, int operand, int stackDelta) {
+        put(opcode);
+        put(operand >> 8);
+        put(operand);
+        adjustStack(stackDelta);
+    }
+
+    // Loads and stores of local variables, using the wide form when needed.
+    void local(int opcode, int index, int stackDelta) {
+        if (index > 0xff) {
+            put(WIDE);
+            opShort(opcode, index, stackDelta);
+        } else {
+            opByte(opcode, index, stackDelta);
+        }
+    }
+
+    void pushInt(int value) {
+        if (value <= Byte.MAX_VALUE) {
+            opByte(BIPUSH, value, 1);
+        } else {
+            opShort(SIPUSH, value, 1);
+        }
+    }
+
+    // Emits a forward branch and returns the offset to hand to patch().
+    int jump(int opcode, int stackDelta) {
+        int at = length;
+        opShort(opcode, 0, stackDelta);
+        return at;
+    }
+
+    void patch(int at) {
+        int offset = length - at;
+        code[at + 1] = (byte) (offset >> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    void jumpBack(int opcode, int target, int stackDelta) {
+        opShort(opcode, target - length, stackDelta);
+    }
+
+    void adjustStack(int delta) {
+        stack += delta;
+        if (stack > maxStack)
+            maxStack = stack;
+    }
+
+    private void put(int b) {
+        if (length == code.length)
+            code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    byte[] toClassFile(String className, String methodName, String descriptor, int maxLocals) {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(1);
+            out.writeShort(0x0009); // public static
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,576 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Alternative to walking the AST with the Interpreter's visitor. Each tree is
+// visited exactly once and turned into a tree of lambdas that already know
+// their operator, variable slot and children, so running them is a chain of
+// direct calls with no accept/visit double dispatch and no switch on the
+// operator type.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Statement.Visitor<ClosureCompiler.StmtNode> {
+    interface ExprNode {
+        Object eval(Environment environment);
+    }
+
+    interface StmtNode {
+        void exec(Environment environment);
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private final Jump jump = new Jump();
+    private final ReturnValue returnValue = new ReturnValue();
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    // A function whose body was compiled once, when its declaration was, or
+    // on the first call if the Parser left it for then. Frame pooling and
+    // tail calls work as for the tree walker's functions.
+    private static class CompiledFunction extends LoxFunction {
+        private final ClosureCompiler compiler;
+        private StmtNode[] body;
+
+        CompiledFunction(Statement.Function declaration, Environment closure, ClosureCompiler compiler,
+                StmtNode[] body) {
+            super(declaration, closure);
+            this.compiler = compiler;
+            this.body = body;
+        }
+
+        @Override
+        void execute(Interpreter interpreter, Environment frame) {
+            if (body == null) {
+                body = compiler.compileAll(declaration.body);
+            }
+
+            for (StmtNode node : body) {
+                node.exec(frame);
+            }
+        }
+    }
+
+    void interperet(List<Statement> stmts) {
+        StmtNode[] program = compileAll(stmts);
+
+        try {
+            for (StmtNode node : program) {
+                node.exec(globals);
+            }
+        } catch (RunTimeError error) {
+            Lox.RunTimeError(error);
+        }
+    }
+
+    private StmtNode[] compileAll(List<Statement> stmts) {
+        StmtNode[] nodes = new StmtNode[stmts.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(stmts.get(i));
+        }
+
+        return nodes;
+    }
+
+    private StmtNode compile(Statement stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Statement.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> expression.eval(environment);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Statement.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> interpreter.output.println(expression.eval(environment));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Statement.Var stmt) {
+        ExprNode initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+        int slot = stmt.slot;
+        String name = stmt.name.lexeme;
+
+        if (initializer == null) {
+            if (slot >= 0) {
+                return environment -> environment.defineAt(slot, null);
+            }
+
+            Global global = globals.global(name);
+            return environment -> global.define(null);
+        }
+
+        if (slot >= 0) {
+            return environment -> environment.defineAt(slot, initializer.eval(environment));
+        }
+
+        Global global = globals.global(name);
+        return environment -> global.define(initializer.eval(environment));
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Statement.Block stmt) {
+        StmtNode[] body = compileAll(stmt.stmts);
+        int slots = stmt.slots;
+
+        return environment -> {
+            Environment inner = new Environment(environment, slots);
+            for (StmtNode node : body) {
+                node.exec(inner);
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Statement.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (Interpreter.verisimilitude(condition.eval(environment))) {
+                    thenBranch.exec(environment);
+                }
+            };
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (Interpreter.verisimilitude(condition.eval(environment))) {
+                thenBranch.exec(environment);
+            } else {
+                elseBranch.exec(environment);
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Statement.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+        ExprNode increment = stmt.increment == null ? null : compile(stmt.increment);
+
+        return environment -> {
+            while (Interpreter.verisimilitude(condition.eval(environment))) {
+                try {
+                    body.exec(environment);
+                } catch (Jump signal) {
+                    if (signal.loop != stmt)
+                        throw signal;
+                    if (signal.isBreak)
+                        break;
+                }
+
+                if (increment != null) {
+                    increment.eval(environment);
+                }
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Statement.Break stmt) {
+        Statement.While loop = stmt.loop;
+        return environment -> {
+            throw jump.to(loop, true);
+        };
+    }
+
+    @Override
+    public StmtNode visitContinueStmt(Statement.Continue stmt) {
+        Statement.While loop = stmt.loop;
+        return environment -> {
+            throw jump.to(loop, false);
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Statement.Function stmt) {
+        StmtNode[] body = stmt.lazy != null ? null : compileAll(stmt.body);
+        int slot = stmt.slot;
+
+        if (slot >= 0) {
+            return environment -> environment.defineAt(slot, new CompiledFunction(stmt, environment, this, body));
+        }
+
+        Global global = globals.global(stmt.name.lexeme);
+        return environment -> global.define(new CompiledFunction(stmt, environment, this, body));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Statement.Return stmt) {
+        if (stmt.tailCall) {
+            return tailCall((Expr.Call) stmt.value);
+        }
+
+        if (stmt.value == null) {
+            return environment -> {
+                throw returnValue.value(null);
+            };
+        }
+
+        ExprNode value = compile(stmt.value);
+        return environment -> {
+            throw returnValue.value(value.eval(environment));
+        };
+    }
+
+    // See Interpreter.tailCall().
+    private StmtNode tailCall(Expr.Call call) {
+        ExprNode callee = compile(call.callee);
+        ExprNode[] args = new ExprNode[call.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(call.args.get(i));
+        }
+        Token paren = call.paren;
+
+        return environment -> {
+            Object function = callee.eval(environment);
+
+            if (function instanceof LoxFunction && ((LoxFunction) function).arity() == args.length) {
+                LoxFunction target = (LoxFunction) function;
+                Environment frame = target.frame();
+                for (int i = 0; i < args.length; i++) {
+                    frame.defineAt(i, args[i].eval(environment));
+                }
+
+                throw returnValue.tailCall(target, frame);
+            }
+
+            List<Object> values = new ArrayList<>(args.length);
+            for (ExprNode arg : args) {
+                values.add(arg.eval(environment));
+            }
+
+            throw returnValue.value(Interpreter.call(interpreter, paren, function, values));
+        };
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        if (depth < 0) {
+            Global global = globals.global(name.lexeme);
+            return environment -> initialized(name, global.get(name));
+        }
+
+        return environment -> initialized(name, environment.getAt(depth, slot));
+    }
+
+    private static Object initialized(Token name, Object value) {
+        if (value == null)
+            throw new RunTimeError(name, "Cannot access uninitialized variable '" + name.lexeme + "'.");
+        return value;
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        if (depth < 0) {
+            Global global = globals.global(name.lexeme);
+            return environment -> {
+                Object result = value.eval(environment);
+                global.assign(name, result);
+                return result;
+            };
+        }
+
+        return environment -> {
+            Object result = value.eval(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG:
+                return environment -> !Interpreter.verisimilitude(right.eval(environment));
+            case MINUS:
+                return environment -> {
+                    Object operand = right.eval(environment);
+                    if (operand instanceof Integer)
+                        return Numbers.negate((int) operand);
+                    Interpreter.checkNumberOperand(operator, operand);
+                    return -(double) operand;
+                };
+        }
+
+        return environment -> {
+            right.eval(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case MINUS:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return Numbers.subtract((int) l, (int) r);
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) - Numbers.toDouble(r);
+                };
+            case GREATER:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return (int) l > (int) r;
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) > Numbers.toDouble(r);
+                };
+            case GREATER_EQUAL:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return (int) l >= (int) r;
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) >= Numbers.toDouble(r);
+                };
+            case LESS:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return (int) l < (int) r;
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) < Numbers.toDouble(r);
+                };
+            case LESS_EQUAL:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return (int) l <= (int) r;
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) <= Numbers.toDouble(r);
+                };
+            case BANG_EQUAL:
+                return environment -> !Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            case EQUAL_EQUAL:
+                return environment -> Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            case PLUS:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer) {
+                        return Numbers.add((int) l, (int) r);
+                    }
+                    if (Numbers.isNumber(l) && Numbers.isNumber(r)) {
+                        return Numbers.toDouble(l) + Numbers.toDouble(r);
+                    }
+                    if (l instanceof CharSequence && r instanceof CharSequence) {
+                        return LoxString.concat((CharSequence) l, (CharSequence) r);
+                    }
+
+                    throw new RunTimeError(operator, "Operands must both be numbers or strings.");
+                };
+            case SLASH:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return (double) (int) l / (int) r;
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) / Numbers.toDouble(r);
+                };
+            case STAR:
+                return environment -> {
+                    Object l = left.eval(environment);
+                    Object r = right.eval(environment);
+                    if (l instanceof Integer && r instanceof Integer)
+                        return Numbers.multiply((int) l, (int) r);
+                    Interpreter.checkNumberOperands(operator, l, r);
+                    return Numbers.toDouble(l) * Numbers.toDouble(r);
+                };
+        }
+
+        return environment -> {
+            left.eval(environment);
+            right.eval(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode mid = compile(expr.mid);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        return environment -> {
+            Object condition = left.eval(environment);
+
+            if (condition instanceof Boolean) {
+                return (boolean) condition ? mid.eval(environment) : right.eval(environment);
+            }
+
+            throw new RunTimeError(operator, " The left expression in ternary operator must return a boolean value.");
+        };
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object l = left.eval(environment);
+                return Interpreter.verisimilitude(l) ? l : right.eval(environment);
+            };
+        }
+
+        return environment -> {
+            Object l = left.eval(environment);
+            return Interpreter.verisimilitude(l) ? right.eval(environment) : l;
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] args = new ExprNode[expr.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(expr.args.get(i));
+        }
+        Token paren = expr.paren;
+
+        switch (args.length) {
+            case 0:
+                return environment -> Interpreter.call0(interpreter, paren, callee.eval(environment));
+            case 1: {
+                ExprNode arg = args[0];
+                return environment -> {
+                    Object function = callee.eval(environment);
+                    return Interpreter.call1(interpreter, paren, function, arg.eval(environment));
+                };
+            }
+            case 2: {
+                ExprNode arg0 = args[0];
+                ExprNode arg1 = args[1];
+                return environment -> {
+                    Object function = callee.eval(environment);
+                    Object value0 = arg0.eval(environment);
+                    return Interpreter.call2(interpreter, paren, function, value0, arg1.eval(environment));
+                };
+            }
+        }
+
+        return environment -> {
+            Object function = callee.eval(environment);
+
+            List<Object> values = new ArrayList<>(args.length);
+            for (ExprNode arg : args) {
+                values.add(arg.eval(environment));
+            }
+
+            return Interpreter.call(interpreter, paren, function, values);
+        };
+    }
+
+    @Override
+    public ExprNode visitListLiteralExpr(Expr.ListLiteral expr) {
+        ExprNode[] elements = new ExprNode[expr.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = compile(expr.elements.get(i));
+        }
+
+        return environment -> {
+            LoxList list = new LoxList(elements.length);
+            for (ExprNode element : elements) {
+                list.add(element.eval(environment));
+            }
+
+            return list;
+        };
+    }
+
+    @Override
+    public ExprNode visitMapLiteralExpr(Expr.MapLiteral expr) {
+        ExprNode[] keys = new ExprNode[expr.keys.size()];
+        ExprNode[] values = new ExprNode[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = compile(expr.keys.get(i));
+            values[i] = compile(expr.values.get(i));
+        }
+        Token brace = expr.brace;
+
+        return environment -> {
+            LoxMap map = new LoxMap(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                Object key = Interpreter.key(brace, keys[i].eval(environment));
+                map.put(key, values[i].eval(environment));
+            }
+
+            return map;
+        };
+    }
+
+    @Override
+    public ExprNode visitIndexExpr(Expr.Index expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode index = compile(expr.index);
+        Token bracket = expr.bracket;
+
+        return environment -> {
+            Object list = object.eval(environment);
+            return Interpreter.getIndex(bracket, list, index.eval(environment));
+        };
+    }
+
+    @Override
+    public ExprNode visitSetIndexExpr(Expr.SetIndex expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode index = compile(expr.index);
+        ExprNode value = compile(expr.value);
+        Token bracket = expr.bracket;
+
+        return environment -> {
+            Object list = object.eval(environment);
+            Object i = index.eval(environment);
+            return Interpreter.setIndex(bracket, list, i, value.eval(environment));
+        };
+    }
+}
@@ -1,47 +1,75 @@
 package main.java.com.jlox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment is keyed by name, local scopes are indexed by
+    // the slots the Resolver hands out.
+    private final Map<String, Global> values;
+    private final Object[] slots;
 
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = null;
+        this.slots = new Object[size];
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    // Returns the cell of a global, creating an undefined one the first time a
+    // name is used so that code can hold on to it before the 'var' runs.
+    Global global(String name) {
+        Global global = values.get(name);
+        if (global == null) {
+            global = new Global(name);
+            values.put(name, global);
         }
 
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
+        return global;
+    }
 
-        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    Object get(Token name) {
+        return global(name.lexeme).get(name);
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+        global(name.lexeme).assign(name, value);
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
+    void define(String name, Object value) {
+        global(name).define(value);
+    }
 
-        throw new RunTimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    void defineAt(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    // Drops the values of a pooled call frame so they can be collected.
+    void clear() {
+        Arrays.fill(slots, null);
+    }
+
+    private Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+
+        return environment;
     }
 }
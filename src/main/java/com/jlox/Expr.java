@@ -21,6 +21,14 @@ abstract class Expr {
         R visitLogicalExpr(Logical expr);
 
         R visitCallExpr(Call expr);
+
+        R visitListLiteralExpr(ListLiteral expr);
+
+        R visitMapLiteralExpr(MapLiteral expr);
+
+        R visitIndexExpr(Index expr);
+
+        R visitSetIndexExpr(SetIndex expr);
     }
 
     static class Binary extends Expr {
@@ -111,6 +119,11 @@ abstract class Expr {
         }
 
         final Token name;
+        // Filled in by the Resolver; a depth of -1 means the variable is global.
+        int depth = -1;
+        int slot;
+        // The global's cell, cached by the Interpreter on first use.
+        Global global;
     }
 
     static class Assign extends Expr {
@@ -126,6 +139,9 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
+        Global global;
     }
 
     static class Logical extends Expr {
@@ -162,5 +178,76 @@ abstract class Expr {
         final List<Expr> args;
     }
 
+    static class ListLiteral extends Expr {
+        ListLiteral(Token bracket, List<Expr> elements) {
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitListLiteralExpr(this);
+        }
+
+        final Token bracket;
+        final List<Expr> elements;
+    }
+
+    static class MapLiteral extends Expr {
+        MapLiteral(Token brace, List<Expr> keys, List<Expr> values) {
+            this.brace = brace;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitMapLiteralExpr(this);
+        }
+
+        final Token brace;
+        final List<Expr> keys;
+        final List<Expr> values;
+    }
+
+    static class Index extends Expr {
+        Index(Expr object, Token bracket, Expr index) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+
+    static class SetIndex extends Expr {
+        SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSetIndexExpr(this);
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+        final Expr value;
+    }
+
     abstract <R> R accept(Visitor<R> visitor);
+
+    // Set by the TypeInferrer when evaluating this expression can only produce a number.
+    boolean numeric;
 }
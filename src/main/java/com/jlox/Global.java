@@ -0,0 +1,33 @@
+package main.java.com.jlox;
+
+// A global variable. There is exactly one cell per name for the lifetime of
+// the globals, so a cell looked up once can be cached by the code that uses
+// it. Redefining the variable, e.g. at the REPL, updates the same cell.
+class Global {
+    final String name;
+    private Object value;
+    private boolean defined = false;
+
+    Global(String name) {
+        this.name = name;
+    }
+
+    Object get(Token token) {
+        if (defined)
+            return value;
+
+        throw new RunTimeError(token, "Undefined variable '" + name + "'.");
+    }
+
+    void assign(Token token, Object value) {
+        if (!defined)
+            throw new RunTimeError(token, "Undefined variable '" + name + "'.");
+
+        this.value = value;
+    }
+
+    void define(Object value) {
+        this.value = value;
+        this.defined = true;
+    }
+}
@@ -0,0 +1,182 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Parses a script that is submitted whole again after every edit, as an
+// editor does, and keeps the top-level statements the edit did not touch.
+// The new source is compared with the last one for their common prefix and
+// suffix. Statements overlapping what lies between are scanned and parsed
+// again, starting where the statement before them ended, until a statement
+// ends where an old one did and the old statements after it can be kept.
+//
+// Tokens carry absolute line numbers, so an edit that adds or removes lines
+// parses everything after it again. So are statements that had a syntax
+// error, to report it again. Where parsing stops the scanner also has to be
+// in the same state as before, which only an open block comment changes.
+class IncrementalParser {
+    static boolean report = false;
+
+    // A top-level statement, where it ends in the source, the line it ends on,
+    // whether a block comment was left open by then and whether it had a
+    // syntax error. The last span holds no statement and stands for the text
+    // after the last one.
+    private static class Span {
+        final Statement statement;
+        final int end;
+        final int line;
+        final boolean inBlockComment;
+        final boolean error;
+
+        Span(Statement statement, int end, int line, boolean inBlockComment, boolean error) {
+            this.statement = statement;
+            this.end = end;
+            this.line = line;
+            this.inBlockComment = inBlockComment;
+            this.error = error;
+        }
+    }
+
+    private String source = "";
+    private List<Span> spans = Collections.singletonList(new Span(null, 0, 1, false, false));
+    private List<Statement> changed = Collections.emptyList();
+
+    // The edit between the last source and the new one: the text from
+    // 'prefix' up to 'oldEnd' was replaced by the text up to 'newEnd'.
+    private int prefix;
+    private int oldEnd;
+    private int newEnd;
+    private int lineDelta;
+
+    List<Statement> parse(String source) {
+        String old = this.source;
+        int shorter = Math.min(old.length(), source.length());
+        int prefix = 0;
+        while (prefix < shorter && old.charAt(prefix) == source.charAt(prefix)) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && old.charAt(old.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) {
+            suffix++;
+        }
+
+        return parse(source, prefix, old.length() - suffix - prefix, source.length() - suffix - prefix);
+    }
+
+    // For a caller that knows what changed: the text 'removed' characters
+    // long at 'from' in the last source was replaced by 'inserted' characters.
+    // Finding that out takes a pass over the whole source otherwise.
+    List<Statement> parse(String source, int from, int removed, int inserted) {
+        prefix = from;
+        oldEnd = from + removed;
+        newEnd = from + inserted;
+        lineDelta = lines(source, prefix, newEnd) - lines(this.source, prefix, oldEnd);
+        this.source = source;
+
+        List<Span> next = new ArrayList<>(spans.size() + 1);
+        changed = new ArrayList<>();
+        int i = 0;
+        while (i < spans.size()) {
+            if (damaged(i)) {
+                i = reparse(i, next);
+                continue;
+            }
+
+            Span span = spans.get(i);
+            if (span.end > prefix && newEnd != oldEnd) {
+                span = new Span(span.statement, span.end + newEnd - oldEnd, span.line, span.inBlockComment, false);
+            }
+            next.add(span);
+            i++;
+        }
+
+        spans = next;
+        List<Statement> statements = new ArrayList<>(spans.size() - 1);
+        for (int j = 0; j < spans.size() - 1; j++) {
+            statements.add(spans.get(j).statement);
+        }
+
+        return statements;
+    }
+
+    // The statements the last parse made anew.
+    List<Statement> changed() {
+        return changed;
+    }
+
+    private static int lines(String text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n')
+                count++;
+        }
+
+        return count;
+    }
+
+    private boolean damaged(int i) {
+        Span span = spans.get(i);
+        if (span.error)
+            return true;
+
+        // Whether an if statement takes an else depends on the token after
+        // it, so an edit up to the end of the next statement counts too.
+        int start = i == 0 ? 0 : spans.get(i - 1).end;
+        int reach = i == spans.size() - 1 ? Integer.MAX_VALUE : spans.get(i + 1).end;
+        return reach > prefix && (start <= oldEnd || lineDelta != 0);
+    }
+
+    // Parses from the end of the last span kept, starting with old span i,
+    // and returns the index of the old span to go on from.
+    private int reparse(int i, List<Span> next) {
+        Span last = next.isEmpty() ? null : next.get(next.size() - 1);
+        int start = last == null ? 0 : last.end;
+        int line = last == null ? 1 : last.line;
+
+        Scanner scanner = new Scanner(source, start, line, last != null && last.inBlockComment);
+        TokenStream tokens = scanner.tokens();
+        Parser parser = new Parser(tokens);
+        // Errors are told apart by statement, and Lox.hadError only says
+        // whether there was one at all.
+        boolean hadError = Lox.hadError;
+        int j = i;
+
+        for (;;) {
+            Lox.hadError = false;
+            if (parser.isAtEnd())
+                break;
+
+            Statement stmt = parser.declaration();
+            boolean error = Lox.hadError;
+            hadError |= error;
+            int end = tokens.previousEnd();
+            boolean inBlockComment = scanner.inBlockCommentAt(end);
+            end += start;
+            next.add(new Span(stmt, end, tokens.previousLine(), inBlockComment, error));
+            changed.add(stmt);
+
+            // Where this statement ends in the old source, if the text after
+            // it is unchanged.
+            int old = end <= prefix ? end : end >= newEnd ? end - newEnd + oldEnd : -1;
+            if (old < 0)
+                continue;
+
+            while (j < spans.size() - 2 && spans.get(j).end < old) {
+                j++;
+            }
+            Span span = spans.get(j);
+            if (j < spans.size() - 1 && span.end == old && span.inBlockComment == inBlockComment
+                    && !damaged(j + 1)) {
+                Lox.hadError = hadError;
+                return j + 1;
+            }
+        }
+
+        next.add(new Span(null, source.length(), line, false, Lox.hadError));
+        Lox.hadError |= hadError;
+        return spans.size();
+    }
+}
@@ -8,11 +8,26 @@ import main.java.com.jlox.Statement.Visitor;
 import main.java.com.jlox.Statement.While;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
-    private Environment environment = new Environment();
-    private boolean bubbleBreak = false;
+    final Environment globals = new Environment();
+    // Where print writes. Every line is written at once unless Lox sets a
+    // limit.
+    Output output = new Output(System.out, 0);
+    private Environment environment = globals;
+    private final Jump jump = new Jump();
+    private final ReturnValue returnValue = new ReturnValue();
+    // Lox calls running now, which LoxFunction.invoke() keeps below
+    // LoxFunction.MAX_DEPTH.
+    int depth = 0;
+
+    Interpreter() {
+        Natives.define(globals);
+    }
 
     void interperet(List<Statement> stmts) {
         try {
@@ -35,11 +50,6 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
             this.environment = environment;
 
             for (Statement statement : stmts) {
-                if (statement instanceof Statement.Break) {
-                    this.bubbleBreak = true;
-                    break;
-                }
-
                 execute(statement);
             }
         } finally {
@@ -49,7 +59,7 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Statement.Block stmt) {
-        executeBlock(stmt.stmts, new Environment(environment), stmt.loopDepth);
+        executeBlock(stmt.stmts, new Environment(environment, stmt.slots), stmt.loopDepth);
 
         return null;
     }
@@ -74,6 +84,134 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
         return expr.accept(this);
     }
 
+    // Primitive path for expressions the TypeInferrer marked numeric. Nothing in
+    // here boxes; operands that are not known to be numbers are evaluated the
+    // usual way and unboxed after both sides have run, like checkNumberOperands.
+    double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            double left;
+            double right;
+
+            if (binary.left.numeric) {
+                left = evaluateDouble(binary.left);
+                right = operand(binary.operator, binary.right);
+            } else if (binary.left instanceof Expr.Index) {
+                // An element is read before the right side runs, which may
+                // change it.
+                Expr.Index index = (Expr.Index) binary.left;
+                Object object = evaluate(index.object);
+                Object key = evaluate(index.index);
+                if (object instanceof LoxList && ((LoxList) object).numeric()) {
+                    left = ((LoxList) object).number(index(index.bracket, (LoxList) object, key));
+                    right = operand(binary.operator, binary.right);
+                } else {
+                    Object value = getIndex(index.bracket, object, key);
+                    right = operand(binary.operator, binary.right);
+                    left = numberOperand(binary.operator, value);
+                }
+            } else {
+                Object value = evaluate(binary.left);
+                right = operand(binary.operator, binary.right);
+                left = numberOperand(binary.operator, value);
+            }
+
+            switch (binary.operator.type) {
+                case MINUS:
+                    return left - right;
+                case SLASH:
+                    return left / right;
+                case STAR:
+                    return left * right;
+                default:
+                    return left + right;
+            }
+        }
+
+        if (expr instanceof Expr.Literal) {
+            return Numbers.toDouble(((Expr.Literal) expr).value);
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        }
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.right.numeric) {
+                return -evaluateDouble(unary.right);
+            }
+
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator, right);
+            return -Numbers.toDouble(right);
+        }
+
+        if (expr instanceof Expr.Ternary) {
+            Expr.Ternary ternary = (Expr.Ternary) expr;
+            Object left = evaluate(ternary.left);
+
+            if (left instanceof Boolean) {
+                return (boolean) left ? evaluateDouble(ternary.mid) : evaluateDouble(ternary.right);
+            }
+
+            throw new RunTimeError(ternary.operator,
+                    " The left expression in ternary operator must return a boolean value.");
+        }
+
+        return Numbers.toDouble(evaluate(expr));
+    }
+
+    // The right operand of numeric arithmetic. An element of a list that holds
+    // only numbers is read from its storage without being boxed.
+    private double operand(Token operator, Expr expr) {
+        if (expr.numeric)
+            return evaluateDouble(expr);
+
+        if (expr instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index) expr;
+            Object object = evaluate(index.object);
+            Object key = evaluate(index.index);
+            if (object instanceof LoxList && ((LoxList) object).numeric())
+                return ((LoxList) object).number(index(index.bracket, (LoxList) object, key));
+            return numberOperand(operator, getIndex(index.bracket, object, key));
+        }
+
+        return numberOperand(operator, evaluate(expr));
+    }
+
+    private static double numberOperand(Token operator, Object operand) {
+        if (Numbers.isNumber(operand))
+            return Numbers.toDouble(operand);
+        throw new RunTimeError(operator, "Operands must be a number.");
+    }
+
+    // Comparisons of a numeric subexpression skip boxing that side.
+    private boolean compareDouble(Expr.Binary expr) {
+        double left;
+        double right;
+
+        if (expr.left.numeric) {
+            left = evaluateDouble(expr.left);
+            right = operand(expr.operator, expr.right);
+        } else {
+            Object value = evaluate(expr.left);
+            right = evaluateDouble(expr.right);
+            left = numberOperand(expr.operator, value);
+        }
+
+        switch (expr.operator.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
     @Override
     public Void visitExpressionStmt(Statement.Expression stmt) {
         evaluate(stmt.expression);
@@ -99,33 +237,48 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, value);
+        } else {
+            globals.define(stmt.name.lexeme, value);
+        }
+
         return null;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
+        } else {
+            global(expr).assign(expr.name, value);
+        }
+
         return value;
     }
 
     @Override
     public Void visitPrintStmt(Statement.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.println(value);
 
         return null;
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.numeric)
+            return Numbers.box(evaluateDouble(expr));
+
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
             case BANG:
                 return !verisimilitude(right);
             case MINUS:
+                if (right instanceof Integer)
+                    return Numbers.negate((int) right);
                 checkNumberOperand(expr.operator, right);
                 return -(double) right;
         }
@@ -135,26 +288,46 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        Object value = environment.get(expr.name);
+        Object value = expr.depth >= 0 ? environment.getAt(expr.depth, expr.slot) : global(expr).get(expr.name);
 
         if (value == null)
             throw new RunTimeError(expr.name, "Cannot access uninitialized variable '" + expr.name.lexeme + "'.");
         return value;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double)
+    private Global global(Expr.Variable expr) {
+        Global global = expr.global;
+        if (global == null) {
+            global = globals.global(expr.name.lexeme);
+            expr.global = global;
+        }
+
+        return global;
+    }
+
+    private Global global(Expr.Assign expr) {
+        Global global = expr.global;
+        if (global == null) {
+            global = globals.global(expr.name.lexeme);
+            expr.global = global;
+        }
+
+        return global;
+    }
+
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (Numbers.isNumber(operand))
             return;
         throw new RunTimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double)
+    static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (Numbers.isNumber(left) && Numbers.isNumber(right))
             return;
         throw new RunTimeError(operator, "Operands must be a number.");
     }
 
-    private boolean verisimilitude(Object object) {
+    static boolean verisimilitude(Object object) {
         if (object == null)
             return false;
         if (object instanceof Boolean)
@@ -163,30 +336,64 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null)
             return true;
         if (a == null)
             return false;
+        if (a instanceof Integer && b instanceof Double || a instanceof Double && b instanceof Integer)
+            return Numbers.equal(a, b);
+        // A string made by '+' equals a plain String with the same characters.
+        if (a instanceof LoxString || b instanceof LoxString)
+            return a instanceof CharSequence && b instanceof CharSequence && a.toString().equals(b.toString());
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-
-            return text;
+        if (Numbers.isNumber(object)) {
+            StringBuilder text = new StringBuilder();
+            NumberFormatter.format(text, Numbers.toDouble(object));
+            return text.toString();
+        }
+        if (object instanceof LoxList || object instanceof LoxMap) {
+            StringBuilder text = new StringBuilder();
+            stringify(text, object, Collections.newSetFromMap(new IdentityHashMap<>()));
+            return text.toString();
         }
 
         return object.toString();
     }
 
+    // Appends a value as stringify() would. 'path' holds the lists and maps
+    // being written around it, so one that contains itself, however deeply,
+    // is written as [...] or {...} where it comes around again.
+    static void stringify(StringBuilder text, Object object, Set<Object> path) {
+        if (object instanceof LoxList) {
+            if (!path.add(object)) {
+                text.append("[...]");
+                return;
+            }
+
+            ((LoxList) object).append(text, path);
+            path.remove(object);
+        } else if (object instanceof LoxMap) {
+            if (!path.add(object)) {
+                text.append("{...}");
+                return;
+            }
+
+            ((LoxMap) object).append(text, path);
+            path.remove(object);
+        } else if (Numbers.isNumber(object)) {
+            NumberFormatter.format(text, Numbers.toDouble(object));
+        } else {
+            text.append(stringify(object));
+        }
+    }
+
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
         Object left = evaluate(expr.left);
@@ -204,44 +411,90 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.numeric)
+            return Numbers.box(evaluateDouble(expr));
+
+        // A literal on either side is already boxed, and two Integers compare
+        // without unboxing below.
+        if (expr.left.numeric && !(expr.left instanceof Expr.Literal)
+                || expr.right.numeric && !(expr.right instanceof Expr.Literal)) {
+            switch (expr.operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return compareDouble(expr);
+            }
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
+        if (left instanceof Integer && right instanceof Integer) {
+            int l = (int) left;
+            int r = (int) right;
+
+            switch (expr.operator.type) {
+                case MINUS:
+                    return Numbers.subtract(l, r);
+                case GREATER:
+                    return l > r;
+                case GREATER_EQUAL:
+                    return l >= r;
+                case LESS:
+                    return l < r;
+                case LESS_EQUAL:
+                    return l <= r;
+                case BANG_EQUAL:
+                    return l != r;
+                case EQUAL_EQUAL:
+                    return l == r;
+                case PLUS:
+                    return Numbers.add(l, r);
+                case SLASH:
+                    return (double) l / r;
+                case STAR:
+                    return Numbers.multiply(l, r);
+            }
+
+            return null;
+        }
+
         switch (expr.operator.type) {
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                return Numbers.toDouble(left) - Numbers.toDouble(right);
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                return Numbers.toDouble(left) > Numbers.toDouble(right);
             case GREATER_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return Numbers.toDouble(left) >= Numbers.toDouble(right);
             case LESS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                return Numbers.toDouble(left) < Numbers.toDouble(right);
             case LESS_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return Numbers.toDouble(left) <= Numbers.toDouble(right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                if (Numbers.isNumber(left) && Numbers.isNumber(right)) {
+                    return Numbers.toDouble(left) + Numbers.toDouble(right);
                 }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return LoxString.concat((CharSequence) left, (CharSequence) right);
                 }
 
                 throw new RunTimeError(expr.operator, "Operands must both be numbers or strings.");
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
+                return Numbers.toDouble(left) / Numbers.toDouble(right);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                return Numbers.toDouble(left) * Numbers.toDouble(right);
         }
 
         return null;
@@ -251,22 +504,175 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
-        List<Object> args = new ArrayList<>();
+        switch (expr.args.size()) {
+            case 0:
+                return call0(this, expr.paren, callee);
+            case 1:
+                return call1(this, expr.paren, callee, evaluate(expr.args.get(0)));
+            case 2: {
+                Object arg0 = evaluate(expr.args.get(0));
+                return call2(this, expr.paren, callee, arg0, evaluate(expr.args.get(1)));
+            }
+        }
+
+        List<Object> args = new ArrayList<>(expr.args.size());
         for (Expr arg : expr.args) {
             args.add(evaluate(arg));
         }
 
+        return call(this, expr.paren, callee, args);
+    }
+
+    // Calls shared by every backend. The arguments have already been evaluated;
+    // each helper checks the callee and its arity and enters it through the
+    // matching fixed-arity entry point.
+    static Object call0(Interpreter interpreter, Token paren, Object callee) {
+        LoxCallable func = callable(paren, callee, 0);
+        try {
+            return func.call0(interpreter);
+        } catch (Natives.Error error) {
+            throw new RunTimeError(paren, error.getMessage());
+        } catch (LoxFunction.Overflow | StackOverflowError error) {
+            throw new RunTimeError(paren, "Stack overflow.");
+        }
+    }
+
+    static Object call1(Interpreter interpreter, Token paren, Object callee, Object arg) {
+        LoxCallable func = callable(paren, callee, 1);
+        try {
+            return func.call1(interpreter, arg);
+        } catch (Natives.Error error) {
+            throw new RunTimeError(paren, error.getMessage());
+        } catch (LoxFunction.Overflow | StackOverflowError error) {
+            throw new RunTimeError(paren, "Stack overflow.");
+        }
+    }
+
+    static Object call2(Interpreter interpreter, Token paren, Object callee, Object arg0, Object arg1) {
+        LoxCallable func = callable(paren, callee, 2);
+        try {
+            return func.call2(interpreter, arg0, arg1);
+        } catch (Natives.Error error) {
+            throw new RunTimeError(paren, error.getMessage());
+        } catch (LoxFunction.Overflow | StackOverflowError error) {
+            throw new RunTimeError(paren, "Stack overflow.");
+        }
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, List<Object> args) {
+        LoxCallable func = callable(paren, callee, args.size());
+        try {
+            return func.call(interpreter, args);
+        } catch (Natives.Error error) {
+            throw new RunTimeError(paren, error.getMessage());
+        } catch (LoxFunction.Overflow | StackOverflowError error) {
+            throw new RunTimeError(paren, "Stack overflow.");
+        }
+    }
+
+    private static LoxCallable callable(Token paren, Object callee, int argCount) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RunTimeError(expr.paren, "Cannot call non-callable object.");
+            throw new RunTimeError(paren, "Cannot call non-callable object.");
         }
 
         LoxCallable func = (LoxCallable) callee;
-        if (args.size() != func.arity()) {
-            throw new RunTimeError(expr.paren,
-                    "Expected " + func.arity() + " but got " + args.size() + " number of arguments.");
+        if (argCount != func.arity()) {
+            throw new RunTimeError(paren, "Expected " + func.arity() + " but got " + argCount + " number of arguments.");
+        }
+
+        return func;
+    }
+
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+        LoxList list = new LoxList(expr.elements.size());
+        for (Expr element : expr.elements) {
+            if (element.numeric) {
+                list.add(evaluateDouble(element));
+            } else {
+                list.add(evaluate(element));
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        return getIndex(expr.bracket, object, evaluate(expr.index));
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        if (expr.value.numeric && object instanceof LoxList) {
+            double value = evaluateDouble(expr.value);
+            LoxList list = (LoxList) object;
+            list.set(index(expr.bracket, list, index), value);
+            return Numbers.box(value);
+        }
+
+        return setIndex(expr.bracket, object, index, evaluate(expr.value));
+    }
+
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        LoxMap map = new LoxMap(expr.keys.size());
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = key(expr.brace, evaluate(expr.keys.get(i)));
+            map.put(key, evaluate(expr.values.get(i)));
+        }
+
+        return map;
+    }
+
+    // Indexing shared by every backend, like the calls above. A key a map
+    // does not have reads as nil.
+    static Object getIndex(Token bracket, Object object, Object index) {
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList) object;
+            return list.get(index(bracket, list, index));
         }
+        if (object instanceof LoxMap)
+            return ((LoxMap) object).get(key(bracket, index));
 
-        return func.call(this, args);
+        throw new RunTimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    static Object setIndex(Token bracket, Object object, Object index, Object value) {
+        if (object instanceof LoxList) {
+            LoxList list = (LoxList) object;
+            list.set(index(bracket, list, index), value);
+        } else if (object instanceof LoxMap) {
+            ((LoxMap) object).put(key(bracket, index), value);
+        } else {
+            throw new RunTimeError(bracket, "Only lists and maps can be indexed.");
+        }
+
+        return value;
+    }
+
+    static Object key(Token token, Object key) {
+        if (key == null)
+            throw new RunTimeError(token, "Map key cannot be nil.");
+        return key;
+    }
+
+    static int index(Token bracket, LoxList list, Object index) {
+        int i;
+        if (index instanceof Integer) {
+            i = (int) index;
+        } else if (index instanceof Double && (double) index == (int) (double) index) {
+            i = (int) (double) index;
+        } else {
+            throw new RunTimeError(bracket, "List index must be a whole number.");
+        }
+
+        if (i < 0 || i >= list.size())
+            throw new RunTimeError(bracket, "List index " + i + " is out of range for a list of " + list.size() + ".");
+        return i;
     }
 
     @Override
@@ -286,13 +692,28 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Statement.While stmt) {
+        if (stmt.compiled != null && stmt.compiled.run(environment, globals))
+            return null;
+
         while (verisimilitude(evaluate(stmt.condition))) {
-            if (this.bubbleBreak) {
-                this.bubbleBreak = false;
-                break;
+            try {
+                execute(stmt.body);
+            } catch (Jump signal) {
+                if (signal.loop != stmt)
+                    throw signal;
+                if (signal.isBreak)
+                    break;
             }
 
-            execute(stmt.body);
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
+
+            if (stmt.hotness < LoopCompiler.THRESHOLD && ++stmt.hotness == LoopCompiler.THRESHOLD) {
+                stmt.compiled = LoopCompiler.compile(stmt);
+                if (stmt.compiled != null && stmt.compiled.run(environment, globals))
+                    return null;
+            }
         }
 
         return null;
@@ -300,11 +721,58 @@ class Interpreter implements Expr.Visitor<Object>, Statement.Visitor<Void> {
 
     @Override
     public Void visitBreakStmt(Break stmt) {
-        return null;
+        throw jump.to(stmt.loop, true);
     }
 
     @Override
     public Void visitContinueStmt(Continue stmt) {
+        throw jump.to(stmt.loop, false);
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt) {
+        LoxFunction function = new LoxFunction(stmt, environment);
+
+        if (stmt.slot >= 0) {
+            environment.defineAt(stmt.slot, function);
+        } else {
+            globals.define(stmt.name.lexeme, function);
+        }
+
         return null;
     }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt) {
+        if (stmt.tailCall) {
+            throw tailCall((Expr.Call) stmt.value);
+        }
+
+        Object value = stmt.value == null ? null : evaluate(stmt.value);
+        throw returnValue.value(value);
+    }
+
+    // Binds the arguments straight into the callee's frame and leaves running
+    // it to the caller's LoxFunction.invoke(). Anything but a Lox function of
+    // the right arity is called the normal way.
+    private ReturnValue tailCall(Expr.Call call) {
+        Object callee = evaluate(call.callee);
+
+        if (callee instanceof LoxFunction && ((LoxFunction) callee).arity() == call.args.size()) {
+            LoxFunction function = (LoxFunction) callee;
+            Environment frame = function.frame();
+            for (int i = 0; i < call.args.size(); i++) {
+                frame.defineAt(i, evaluate(call.args.get(i)));
+            }
+
+            return returnValue.tailCall(function, frame);
+        }
+
+        List<Object> args = new ArrayList<>(call.args.size());
+        for (Expr arg : call.args) {
+            args.add(evaluate(arg));
+        }
+
+        return returnValue.value(call(this, call.paren, callee, args));
+    }
 }
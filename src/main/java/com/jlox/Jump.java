@@ -0,0 +1,20 @@
+package main.java.com.jlox;
+
+// Thrown by break and continue and caught by the loop they target. Each
+// backend keeps a single instance and fills in the target before throwing it,
+// and it carries no stack trace, so taking a jump allocates nothing and loops
+// that never jump only pay for an exception table entry.
+class Jump extends RuntimeException {
+    Statement.While loop;
+    boolean isBreak;
+
+    Jump() {
+        super(null, null, false, false);
+    }
+
+    Jump to(Statement.While loop, boolean isBreak) {
+        this.loop = loop;
+        this.isBreak = isBreak;
+        return this;
+    }
+}
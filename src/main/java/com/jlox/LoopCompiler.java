@@ -0,0 +1,591 @@
+package main.java.com.jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Second tier for hot while loops. Once the Interpreter has seen a loop go
+// around THRESHOLD times it asks for the loop to be compiled into a JVM class
+// whose single static method runs the whole loop on primitive doubles, so that
+// HotSpot can optimize the Lox code directly.
+//
+// Only purely numeric loops are compiled: every variable the loop touches has
+// to hold a number and only arithmetic, comparisons, and/or, ternaries,
+// assignments, var declarations, blocks, if, nested while loops and break or
+// continue within the compiled loop may appear.
+// Anything else makes compile() return null and the loop keeps running in the
+// tree walker. Variables declared outside the loop are copied into a double[]
+// on entry and the ones the loop assigns are written back when it finishes.
+class LoopCompiler implements Expr.Visitor<LoopCompiler.Type>, Statement.Visitor<Void> {
+    static final int THRESHOLD = 1000;
+    static boolean enabled = true;
+
+    enum Type {
+        NUMBER, BOOLEAN
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+    private static final String PACKAGE = "main/java/com/jlox/";
+    private static final MethodType RUN_TYPE = MethodType.methodType(void.class, double[].class);
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static int loops = 0;
+
+    // Lookup.defineHiddenClass only exists from Java 15 on, so it is looked up
+    // reflectively and plain Lookup.defineClass is used on older runtimes.
+    private static final Method defineHiddenClass;
+    private static final Object hiddenClassOptions;
+
+    static {
+        Method method = null;
+        Object options = null;
+
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(option, 0);
+            method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                    options.getClass());
+        } catch (ReflectiveOperationException e) {
+            method = null;
+        }
+
+        defineHiddenClass = method;
+        hiddenClassOptions = options;
+    }
+
+    static class CompiledLoop {
+        private final MethodHandle code;
+        private final int[] depths;
+        private final int[] slots;
+        private final Token[] names;
+        private final boolean[] assigned;
+        // Cells of the globals among the variables, bound on the first run.
+        private final Global[] cells;
+
+        private CompiledLoop(MethodHandle code, LoopCompiler compiler) {
+            int count = compiler.outerDepths.size();
+
+            this.code = code;
+            this.depths = new int[count];
+            this.slots = new int[count];
+            this.names = compiler.outerNames.toArray(new Token[count]);
+            this.assigned = new boolean[count];
+            this.cells = new Global[count];
+
+            for (int i = 0; i < count; i++) {
+                depths[i] = compiler.outerDepths.get(i);
+                slots[i] = compiler.outerSlots.get(i);
+                assigned[i] = compiler.outerAssigned.get(i);
+            }
+        }
+
+        // Runs the rest of the loop. Returns false without running anything if
+        // one of the variables does not currently hold a number.
+        boolean run(Environment environment, Environment globals) {
+            double[] values = new double[depths.length];
+
+            for (int i = 0; i < values.length; i++) {
+                Object value;
+                if (depths[i] >= 0) {
+                    value = environment.getAt(depths[i], slots[i]);
+                } else {
+                    if (cells[i] == null)
+                        cells[i] = globals.global(names[i].lexeme);
+
+                    try {
+                        value = cells[i].get(names[i]);
+                    } catch (RunTimeError error) {
+                        return false;
+                    }
+                }
+
+                if (!Numbers.isNumber(value))
+                    return false;
+                values[i] = Numbers.toDouble(value);
+            }
+
+            try {
+                code.invokeExact(values);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+
+            for (int i = 0; i < values.length; i++) {
+                if (!assigned[i])
+                    continue;
+
+                if (depths[i] >= 0) {
+                    environment.assignAt(depths[i], slots[i], Numbers.box(values[i]));
+                } else {
+                    cells[i].assign(names[i], Numbers.box(values[i]));
+                }
+            }
+
+            return true;
+        }
+    }
+
+    static CompiledLoop compile(Statement.While loop) {
+        if (!enabled)
+            return null;
+
+        try {
+            return new LoopCompiler().compileLoop(loop);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private final ClassAssembler asm = new ClassAssembler();
+    // Loops being compiled with the pending jumps of the break and continue
+    // statements that target them. Jumping to a loop outside the compiled one
+    // is unsupported.
+    private final Map<Statement.While, List<Integer>> breakJumps = new HashMap<>();
+    private final Map<Statement.While, List<Integer>> continueJumps = new HashMap<>();
+    // Blocks entered inside the loop, mapping their resolved slots to JVM locals.
+    private final Stack<Map<Integer, Integer>> scopes = new Stack<>();
+
+    // Variables declared outside the loop, in the order they occupy the
+    // double[] argument. Locals are keyed relative to the loop's environment.
+    private final Map<String, Integer> outerIndex = new HashMap<>();
+    private final List<Integer> outerDepths = new ArrayList<>();
+    private final List<Integer> outerSlots = new ArrayList<>();
+    private final List<Token> outerNames = new ArrayList<>();
+    private final List<Boolean> outerAssigned = new ArrayList<>();
+    private final List<Integer> outerLocals = new ArrayList<>();
+
+    // Local 0 holds the double[] argument.
+    private int nextLocal = 1;
+
+    private CompiledLoop compileLoop(Statement.While loop) {
+        // The outer variables are only known once the loop has been compiled,
+        // so the code that loads them is placed after the loop and jumped to.
+        int toPrologue = asm.jump(ClassAssembler.GOTO, 0);
+        int loopStart = asm.position();
+
+        loop.accept(this);
+
+        for (int i = 0; i < outerLocals.size(); i++) {
+            if (!outerAssigned.get(i))
+                continue;
+
+            asm.op(ClassAssembler.ALOAD_0, 1);
+            asm.pushInt(i);
+            asm.local(ClassAssembler.DLOAD, outerLocals.get(i), 2);
+            asm.op(ClassAssembler.DASTORE, -4);
+        }
+        asm.op(ClassAssembler.RETURN, 0);
+
+        asm.patch(toPrologue);
+        for (int i = 0; i < outerLocals.size(); i++) {
+            asm.op(ClassAssembler.ALOAD_0, 1);
+            asm.pushInt(i);
+            asm.op(ClassAssembler.DALOAD, 0);
+            asm.local(ClassAssembler.DSTORE, outerLocals.get(i), -2);
+        }
+        asm.jumpBack(ClassAssembler.GOTO, loopStart, 0);
+
+        if (asm.position() > Short.MAX_VALUE || outerLocals.size() > Short.MAX_VALUE || nextLocal > 0xffff)
+            throw UNSUPPORTED;
+
+        try {
+            return new CompiledLoop(define(), this);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private MethodHandle define() throws ReflectiveOperationException {
+        String name;
+        synchronized (LoopCompiler.class) {
+            name = PACKAGE + "JitLoop" + loops++;
+        }
+        byte[] bytes = asm.toClassFile(name, "run", "([D)V", nextLocal);
+
+        if (defineHiddenClass != null) {
+            MethodHandles.Lookup hidden = (MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true,
+                    hiddenClassOptions);
+            return hidden.findStatic(hidden.lookupClass(), "run", RUN_TYPE);
+        }
+
+        // Initialize right away so a class the verifier rejects fails here and
+        // not on its first call.
+        Class<?> loop = lookup.defineClass(bytes);
+        Class.forName(loop.getName(), true, loop.getClassLoader());
+        return lookup.findStatic(loop, "run", RUN_TYPE);
+    }
+
+    private void compile(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    private Type compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void expect(Type expected, Type actual) {
+        if (expected != actual)
+            throw UNSUPPORTED;
+    }
+
+    private int local(int depth, int slot, Token name, boolean assign) {
+        if (depth >= 0 && depth < scopes.size()) {
+            Integer local = scopes.get(scopes.size() - 1 - depth).get(slot);
+            if (local == null)
+                throw UNSUPPORTED;
+            return local;
+        }
+
+        int outerDepth = depth < 0 ? -1 : depth - scopes.size();
+        String key = outerDepth < 0 ? name.lexeme : outerDepth + ":" + slot;
+
+        Integer index = outerIndex.get(key);
+        if (index == null) {
+            index = outerLocals.size();
+            outerIndex.put(key, index);
+            outerDepths.add(outerDepth);
+            outerSlots.add(slot);
+            outerNames.add(name);
+            outerAssigned.add(false);
+            outerLocals.add(nextLocal);
+            nextLocal += 2;
+        }
+
+        if (assign)
+            outerAssigned.set(index, true);
+
+        return outerLocals.get(index);
+    }
+
+    // Turns a conditional branch over the operands on the stack into a 0 or 1.
+    private Type branchToBoolean(int jumpIfFalse, int stackDelta) {
+        int toFalse = asm.jump(jumpIfFalse, stackDelta);
+        asm.op(ClassAssembler.ICONST_1, 1);
+        int toEnd = asm.jump(ClassAssembler.GOTO, 0);
+
+        asm.patch(toFalse);
+        asm.adjustStack(-1);
+        asm.op(ClassAssembler.ICONST_0, 1);
+        asm.patch(toEnd);
+
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Statement.Expression stmt) {
+        pop(compile(stmt.expression));
+        return null;
+    }
+
+    private void pop(Type type) {
+        if (type == Type.NUMBER) {
+            asm.op(ClassAssembler.POP2, -2);
+        } else {
+            asm.op(ClassAssembler.POP, -1);
+        }
+    }
+
+    @Override
+    public Void visitPrintStmt(Statement.Print stmt) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt) {
+        if (stmt.initializer == null || stmt.slot < 0 || scopes.isEmpty())
+            throw UNSUPPORTED;
+
+        expect(Type.NUMBER, compile(stmt.initializer));
+
+        Map<Integer, Integer> scope = scopes.peek();
+        Integer local = scope.get(stmt.slot);
+        if (local == null) {
+            local = nextLocal;
+            nextLocal += 2;
+            scope.put(stmt.slot, local);
+        }
+
+        asm.local(ClassAssembler.DSTORE, local, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt) {
+        scopes.push(new HashMap<Integer, Integer>());
+        for (Statement statement : stmt.stmts) {
+            compile(statement);
+        }
+        scopes.pop();
+
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt) {
+        expect(Type.BOOLEAN, compile(stmt.condition));
+
+        int toElse = asm.jump(ClassAssembler.IFEQ, -1);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            asm.patch(toElse);
+            return null;
+        }
+
+        int toEnd = asm.jump(ClassAssembler.GOTO, 0);
+        asm.patch(toElse);
+        compile(stmt.elseBranch);
+        asm.patch(toEnd);
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt) {
+        int start = asm.position();
+        breakJumps.put(stmt, new ArrayList<Integer>());
+        continueJumps.put(stmt, new ArrayList<Integer>());
+
+        expect(Type.BOOLEAN, compile(stmt.condition));
+        int exit = asm.jump(ClassAssembler.IFEQ, -1);
+        compile(stmt.body);
+
+        patchAll(continueJumps.remove(stmt));
+        if (stmt.increment != null) {
+            pop(compile(stmt.increment));
+        }
+        asm.jumpBack(ClassAssembler.GOTO, start, 0);
+
+        asm.patch(exit);
+        patchAll(breakJumps.remove(stmt));
+        return null;
+    }
+
+    private void patchAll(List<Integer> jumps) {
+        for (int at : jumps) {
+            asm.patch(at);
+        }
+    }
+
+    // Statements leave the operand stack empty, so a jump out of the body
+    // needs no cleanup.
+    private void jumpTo(Map<Statement.While, List<Integer>> targets, Statement.While loop) {
+        List<Integer> jumps = targets.get(loop);
+        if (jumps == null)
+            throw UNSUPPORTED;
+
+        jumps.add(asm.jump(ClassAssembler.GOTO, 0));
+    }
+
+    @Override
+    public Void visitBreakStmt(Statement.Break stmt) {
+        jumpTo(breakJumps, stmt.loop);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Statement.Continue stmt) {
+        jumpTo(continueJumps, stmt.loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Boolean) {
+            asm.op((boolean) expr.value ? ClassAssembler.ICONST_1 : ClassAssembler.ICONST_0, 1);
+            return Type.BOOLEAN;
+        }
+
+        if (!Numbers.isNumber(expr.value))
+            throw UNSUPPORTED;
+
+        double value = Numbers.toDouble(expr.value);
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            asm.op(ClassAssembler.DCONST_0, 2);
+        } else if (value == 1.0) {
+            asm.op(ClassAssembler.DCONST_1, 2);
+        } else {
+            asm.opShort(ClassAssembler.LDC2_W, asm.doubleConstant(value), 2);
+        }
+
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        asm.local(ClassAssembler.DLOAD, local(expr.depth, expr.slot, expr.name, false), 2);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        expect(Type.NUMBER, compile(expr.value));
+
+        asm.op(ClassAssembler.DUP2, 2);
+        asm.local(ClassAssembler.DSTORE, local(expr.depth, expr.slot, expr.name, true), -2);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type type = compile(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+                expect(Type.NUMBER, type);
+                asm.op(ClassAssembler.DNEG, 0);
+                return Type.NUMBER;
+            case BANG:
+                expect(Type.BOOLEAN, type);
+                asm.op(ClassAssembler.ICONST_1, 1);
+                asm.op(ClassAssembler.IXOR, -1);
+                return Type.BOOLEAN;
+        }
+
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        TokenType operator = expr.operator.type;
+        boolean equality = operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL;
+
+        Type left = compile(expr.left);
+        if (equality && left == Type.NUMBER) {
+            // Lox equality on numbers is Double.equals, which compares bits.
+            asm.opShort(ClassAssembler.INVOKESTATIC,
+                    asm.methodRef("java/lang/Double", "doubleToLongBits", "(D)J"), 0);
+        }
+
+        Type right = compile(expr.right);
+        if (equality) {
+            expect(left, right);
+
+            if (left == Type.NUMBER) {
+                asm.opShort(ClassAssembler.INVOKESTATIC,
+                        asm.methodRef("java/lang/Double", "doubleToLongBits", "(D)J"), 0);
+                asm.op(ClassAssembler.LCMP, -3);
+                return branchToBoolean(operator == TokenType.EQUAL_EQUAL ? ClassAssembler.IFNE : ClassAssembler.IFEQ,
+                        -1);
+            }
+
+            return branchToBoolean(
+                    operator == TokenType.EQUAL_EQUAL ? ClassAssembler.IF_ICMPNE : ClassAssembler.IF_ICMPEQ, -2);
+        }
+
+        expect(Type.NUMBER, left);
+        expect(Type.NUMBER, right);
+
+        switch (operator) {
+            case PLUS:
+                asm.op(ClassAssembler.DADD, -2);
+                return Type.NUMBER;
+            case MINUS:
+                asm.op(ClassAssembler.DSUB, -2);
+                return Type.NUMBER;
+            case STAR:
+                asm.op(ClassAssembler.DMUL, -2);
+                return Type.NUMBER;
+            case SLASH:
+                asm.op(ClassAssembler.DDIV, -2);
+                return Type.NUMBER;
+            case LESS:
+                asm.op(ClassAssembler.DCMPG, -3);
+                return branchToBoolean(ClassAssembler.IFGE, -1);
+            case LESS_EQUAL:
+                asm.op(ClassAssembler.DCMPG, -3);
+                return branchToBoolean(ClassAssembler.IFGT, -1);
+            case GREATER:
+                asm.op(ClassAssembler.DCMPL, -3);
+                return branchToBoolean(ClassAssembler.IFLE, -1);
+            case GREATER_EQUAL:
+                asm.op(ClassAssembler.DCMPL, -3);
+                return branchToBoolean(ClassAssembler.IFLT, -1);
+        }
+
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitTernaryExpr(Expr.Ternary expr) {
+        expect(Type.BOOLEAN, compile(expr.left));
+
+        int toElse = asm.jump(ClassAssembler.IFEQ, -1);
+        Type type = compile(expr.mid);
+        int toEnd = asm.jump(ClassAssembler.GOTO, 0);
+
+        asm.patch(toElse);
+        asm.adjustStack(type == Type.NUMBER ? -2 : -1);
+        expect(type, compile(expr.right));
+        asm.patch(toEnd);
+
+        return type;
+    }
+
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        // and/or yield one of their operands, so only boolean operands keep the
+        // result a boolean.
+        expect(Type.BOOLEAN, compile(expr.left));
+
+        asm.op(ClassAssembler.DUP, 1);
+        int toEnd = asm.jump(expr.operator.type == TokenType.OR ? ClassAssembler.IFNE : ClassAssembler.IFEQ, -1);
+        asm.op(ClassAssembler.POP, -1);
+        expect(Type.BOOLEAN, compile(expr.right));
+        asm.patch(toEnd);
+
+        return Type.BOOLEAN;
+    }
+
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitListLiteralExpr(Expr.ListLiteral expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitMapLiteralExpr(Expr.MapLiteral expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitIndexExpr(Expr.Index expr) {
+        throw UNSUPPORTED;
+    }
+
+    @Override
+    public Type visitSetIndexExpr(Expr.SetIndex expr) {
+        throw UNSUPPORTED;
+    }
+}
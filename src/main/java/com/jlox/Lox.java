@@ -1,9 +1,16 @@
 package main.java.com.jlox;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.List;
 
 import org.jline.reader.EndOfFileException;
@@ -18,31 +25,196 @@ import org.jline.terminal.TerminalBuilder;
 import org.jline.widget.AutopairWidgets;
 
 public class Lox {
+    enum Backend {
+        TREE, CLOSURE, VM, ARENA
+    }
+
     private static final Interpreter interpreter = new Interpreter();
+    private static final ClosureCompiler closureCompiler = new ClosureCompiler(interpreter);
+    private static final VM vm = new VM(interpreter);
+    private static final IncrementalParser incrementalParser = new IncrementalParser();
+    static Backend backend = Backend.TREE;
     static boolean hadError = false;
     static boolean hadRunTimeError = false;
+    // Characters of print output a script holds before writing them, and
+    // whether a thread also writes them out as they come. The prompt writes
+    // every line.
+    private static int outputLimit = 1 << 16;
+    private static boolean outputThread = false;
+    private static boolean vmFallbackReported = false;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+    // Ends a running program when the body of a function parsed on its
+    // first call has errors, which have been reported.
+    private static class LazyBodyError extends RuntimeException {
+    }
+
+    // Lox calls that are not tail calls nest Java calls, so Lox code runs on a
+    // thread with a larger stack than the JVM gives the main thread: enough
+    // for LoxFunction.MAX_DEPTH calls on any backend, at up to 3KB of Java
+    // stack each, twice over.
+    private static final long STACK_SIZE = 1L << 26;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if (!option(args[i]))
+                usage();
+        }
+
+        if (args.length - i > 1) {
+            usage();
+        }
+
+        String path = args.length - i == 1 ? args[i] : null;
+        // Whatever ended the thread, so that the process fails with it as it
+        // would have on the main thread.
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (path != null) {
+                    runFile(path);
+                } else {
+                    runPrompt();
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                interpreter.output.flush();
+            }
+        }, "jlox", STACK_SIZE);
+
+        thread.start();
+        thread.join();
+        if (failure[0] instanceof IOException)
+            throw (IOException) failure[0];
+        if (failure[0] != null) {
+            failure[0].printStackTrace();
+            System.exit(70);
+        }
+    }
+
+    private static boolean option(String arg) {
+        if (arg.startsWith("--backend=")) {
+            try {
+                backend = Backend.valueOf(arg.substring("--backend=".length()).toUpperCase());
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        if (arg.equals("--no-jit")) {
+            LoopCompiler.enabled = false;
+            return true;
+        }
+
+        if (arg.equals("--no-optimize")) {
+            Optimizer.enabled = false;
+            return true;
+        }
+
+        if (arg.equals("--no-cache")) {
+            AstCache.enabled = false;
+            return true;
+        }
+
+        if (arg.startsWith("--cache-dir=")) {
+            AstCache.directory = Paths.get(arg.substring("--cache-dir=".length()));
+            return true;
+        }
+
+        if (arg.startsWith("--flush=")) {
+            String when = arg.substring("--flush=".length());
+            if (when.equals("line")) {
+                outputLimit = 0;
+            } else if (when.equals("exit")) {
+                outputLimit = Output.EXIT;
+            } else if (when.equals("thread")) {
+                outputThread = true;
+            } else {
+                try {
+                    outputLimit = Integer.parseInt(when);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
         }
+
+        if (arg.equals("--lazy-parse")) {
+            Parser.lazy = true;
+            return true;
+        }
+
+        if (arg.equals("--optimizer-report")) {
+            Optimizer.report = true;
+            return true;
+        }
+
+        if (arg.equals("--incremental-report")) {
+            IncrementalParser.report = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--backend=tree|closure|vm|arena] [--no-jit] [--no-optimize] [--lazy-parse]\n"
+                + "            [--flush=line|exit|thread|chars] [--optimizer-report] [--incremental-report]\n"
+                + "            [--no-cache] [--cache-dir=path] [script]");
+        System.exit(64);
     }
 
     public static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        interpreter.output.limit(outputLimit);
+        if (outputThread) {
+            interpreter.output.flushEvery(100);
+        }
 
+        // The script is mapped and scanned in place as UTF-8. Files too big
+        // for one mapping are streamed through a Reader instead.
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                runMapped(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } else {
+                Reader reader = new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8);
+                run(new Scanner(reader));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        interpreter.output.flush();
         if (hadError)
             System.exit(65);
         if (hadRunTimeError)
             System.exit(70);
     }
 
+    // An unchanged script is loaded from the AstCache instead of being parsed.
+    // Lazy parsing leaves function bodies out of the tree, so it does not
+    // go through the cache.
+    private static void runMapped(ByteBuffer source) {
+        if (!AstCache.enabled || Parser.lazy) {
+            run(new Scanner(source));
+            return;
+        }
+
+        byte[] hash = AstCache.hash(source);
+        List<Statement> statements = AstCache.load(hash);
+        if (statements == null) {
+            statements = parse(new Scanner(source));
+            if (hadError)
+                return;
+
+            AstCache.store(hash, statements);
+        }
+
+        run(statements);
+    }
+
     public static void runPrompt() throws IOException {
         String prompt = "> ";
         Terminal terminal = TerminalBuilder.terminal();
@@ -71,31 +243,120 @@ public class Lox {
         }
     }
 
+    // Source handed in whole again after an edit, e.g. by an editor, only
+    // has the statements the edit touched parsed again.
     public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        List<Statement> statements = incrementalParser.parse(source);
+        if (IncrementalParser.report) {
+            System.err.println("[incremental] parsed " + incrementalParser.changed().size() + " of "
+                    + statements.size() + " statements.");
+        }
+        if (hadError)
+            return;
+
+        run(statements);
+    }
+
+    private static void run(Scanner scanner) {
+        List<Statement> statements = parse(scanner);
+        if (hadError)
+            return;
+
+        run(statements);
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Statement> statements = parser.parser();
+    private static List<Statement> parse(Scanner scanner) {
+        Parser parser = new Parser(scanner.tokens());
         // Expr expression = parser.parse();
+        return parser.parser();
+    }
 
+    private static void run(List<Statement> statements) {
+        new Resolver().resolve(statements);
         if (hadError)
             return;
 
-        interpreter.interperet(statements);
+        if (Optimizer.enabled) {
+            statements = new Optimizer().optimize(statements);
+        }
+
+        new TypeInferrer().infer(statements);
+
+        try {
+            execute(statements);
+        } catch (LazyBodyError error) {
+            // Reported already.
+        }
+    }
+
+    private static void execute(List<Statement> statements) {
+        if (backend == Backend.CLOSURE) {
+            closureCompiler.interperet(statements);
+        } else if (backend == Backend.VM) {
+            BytecodeCompiler compiler = new BytecodeCompiler(interpreter.globals);
+            Chunk chunk = compiler.compile(statements);
+            if (hadError)
+                return;
+
+            // The VM cannot run everything yet, the tree walker shares its
+            // globals. Said once, so that timings of --backend=vm are not
+            // taken for the VM's.
+            if (chunk == null) {
+                if (!vmFallbackReported) {
+                    vmFallbackReported = true;
+                    interpreter.output.flush();
+                    System.err.println("[vm] " + compiler.unsupported()
+                            + " have no bytecode yet; running on the tree interpreter.");
+                }
+                interpreter.interperet(statements);
+            } else {
+                vm.interperet(chunk);
+            }
+        } else if (backend == Backend.ARENA) {
+            new ArenaExecutor(interpreter, new ArenaEncoder(interpreter.globals).encode(statements)).interperet();
+        } else {
+            interpreter.interperet(statements);
+        }
         // System.out.println(new AstPrinter().print(expression));
     }
 
+    // Parses the body of a function the Parser skipped in lazy mode and
+    // takes it through the passes the rest of the program went through.
+    static void parseBody(Statement.Function function) {
+        List<Statement> body = function.lazy.parse();
+        if (hadError)
+            throw new LazyBodyError();
+
+        Parser.LazyBody lazy = function.lazy;
+        function.body = body;
+        function.lazy = null;
+        new Resolver().resolve(Collections.<Statement>singletonList(function));
+        if (hadError) {
+            function.body = null;
+            function.lazy = lazy;
+            throw new LazyBodyError();
+        }
+
+        if (Optimizer.enabled) {
+            List<Statement> optimized = new Optimizer().optimize(Collections.<Statement>singletonList(function));
+            function.body = ((Statement.Function) optimized.get(0)).body;
+        }
+
+        new TypeInferrer().infer(function.body);
+    }
+
     static void error(int line, String message) {
         report(line, "", message);
     }
 
     static void RunTimeError(RunTimeError error) {
+        interpreter.output.flush();
         System.err.println("[line " + error.token.line + "] " + error.getMessage());
         hadRunTimeError = true;
     }
 
     private static void report(int line, String where, String message) {
+        interpreter.output.flush();
         System.err.println("[line " + line + "] Error" + where + ":" + message);
         hadError = true;
     }
@@ -1,8 +1,26 @@
 package main.java.com.jlox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+// Call sites with up to two arguments use the fixed-arity entry points, which
+// callables override to take their arguments without a List being built. The
+// defaults fall back to call() for callables that only implement that.
 interface LoxCallable {
-    int arity;
+    int arity();
+
     Object call(Interpreter interpreter, List<Object> args);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object arg) {
+        return call(interpreter, Collections.singletonList(arg));
+    }
+
+    default Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        return call(interpreter, Arrays.asList(arg0, arg1));
+    }
 }
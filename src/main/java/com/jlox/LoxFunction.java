@@ -0,0 +1,134 @@
+package main.java.com.jlox;
+
+import java.util.List;
+
+// A function declared in Lox code. Calls run in a frame whose first slots hold
+// the arguments. Frames are taken from a per-function pool and returned to it
+// when the call is done, unless the Resolver found a nested function that may
+// keep them alive.
+class LoxFunction implements LoxCallable {
+    private static final int MAX_POOLED = 256;
+    // The deepest Lox calls may nest, so that runaway recursion fails at once
+    // instead of filling a huge stack. Tail calls do not count.
+    static final int MAX_DEPTH = 10000;
+
+    // Thrown by a call that would go past MAX_DEPTH. The call helpers in
+    // Interpreter report it as a stack overflow at the call.
+    static class Overflow extends RuntimeException {
+        Overflow() {
+            super(null, null, false, false);
+        }
+    }
+
+    final Statement.Function declaration;
+    private final Environment closure;
+    private Environment[] pool = new Environment[4];
+    private int pooled = 0;
+
+    LoxFunction(Statement.Function declaration, Environment closure) {
+        this.declaration = declaration;
+        this.closure = closure;
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    Environment frame() {
+        if (pooled > 0) {
+            Environment frame = pool[--pooled];
+            pool[pooled] = null;
+            return frame;
+        }
+
+        // Only the first call can find the body unparsed, since no frame has
+        // been pooled before it.
+        if (declaration.lazy != null) {
+            Lox.parseBody(declaration);
+        }
+
+        return new Environment(closure, declaration.slots);
+    }
+
+    private void release(Environment frame) {
+        if (!declaration.poolable || pooled == MAX_POOLED)
+            return;
+
+        frame.clear();
+        if (pooled == pool.length) {
+            Environment[] grown = new Environment[pooled * 2];
+            System.arraycopy(pool, 0, grown, 0, pooled);
+            pool = grown;
+        }
+        pool[pooled++] = frame;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> args) {
+        Environment frame = frame();
+        for (int i = 0; i < args.size(); i++) {
+            frame.defineAt(i, args.get(i));
+        }
+
+        return invoke(interpreter, frame);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, frame());
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object arg) {
+        Environment frame = frame();
+        frame.defineAt(0, arg);
+        return invoke(interpreter, frame);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object arg0, Object arg1) {
+        Environment frame = frame();
+        frame.defineAt(0, arg0);
+        frame.defineAt(1, arg1);
+        return invoke(interpreter, frame);
+    }
+
+    // Runs the call and then every tail call it hands back, one after the
+    // other, so a chain of tail calls uses a single Java frame and counts as
+    // one call towards MAX_DEPTH.
+    Object invoke(Interpreter interpreter, Environment frame) {
+        LoxFunction function = this;
+
+        for (;;) {
+            ReturnValue returned;
+            try {
+                if (++interpreter.depth > MAX_DEPTH)
+                    throw new Overflow();
+                function.execute(interpreter, frame);
+                return null;
+            } catch (ReturnValue signal) {
+                returned = signal;
+            } finally {
+                interpreter.depth--;
+                function.release(frame);
+            }
+
+            if (returned.function == null)
+                return returned.value;
+
+            function = returned.function;
+            frame = returned.frame;
+        }
+    }
+
+    // Runs the body once in the given frame.
+    void execute(Interpreter interpreter, Environment frame) {
+        interpreter.executeBlock(declaration.body, frame, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme + ">";
+    }
+}
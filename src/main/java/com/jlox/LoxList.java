@@ -0,0 +1,124 @@
+package main.java.com.jlox;
+
+import java.util.Arrays;
+import java.util.Set;
+
+// A Lox list. While every element is a number the elements are kept unboxed
+// in a double[], which holds a million of them in 8MB instead of a million
+// Integers and Doubles, and lets numeric code read and write them without
+// boxing. The first element that is not a number moves the list to an
+// Object[] for good. Either array doubles in size when it fills up.
+//
+// The numbers come back out through Numbers.box, so a whole number stored as
+// a Double reads back as an Integer, which Lox does not tell apart.
+final class LoxList {
+    private static final int MIN_CAPACITY = 8;
+
+    // Exactly one of these is in use.
+    private double[] numbers;
+    private Object[] values;
+    private int size;
+
+    LoxList(int capacity) {
+        numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Whether number() can read the elements.
+    boolean numeric() {
+        return numbers != null;
+    }
+
+    double number(int index) {
+        return numbers[index];
+    }
+
+    Object get(int index) {
+        if (numbers != null)
+            return Numbers.box(numbers[index]);
+        return values[index];
+    }
+
+    void set(int index, double value) {
+        if (numbers != null) {
+            numbers[index] = value;
+        } else {
+            values[index] = Numbers.box(value);
+        }
+    }
+
+    void set(int index, Object value) {
+        if (numbers != null) {
+            if (Numbers.isNumber(value)) {
+                numbers[index] = Numbers.toDouble(value);
+                return;
+            }
+            box();
+        }
+
+        values[index] = value;
+    }
+
+    void add(double value) {
+        grow();
+        set(size++, value);
+    }
+
+    void add(Object value) {
+        grow();
+        set(size++, value);
+    }
+
+    Object removeLast() {
+        Object last = get(--size);
+        if (values != null) {
+            values[size] = null;
+        }
+
+        return last;
+    }
+
+    private void grow() {
+        if (numbers != null) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+        } else if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+    }
+
+    private void box() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            values[i] = Numbers.box(numbers[i]);
+        }
+
+        numbers = null;
+    }
+
+    void append(StringBuilder text, Set<Object> path) {
+        text.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+
+            if (numbers != null) {
+                NumberFormatter.format(text, numbers[i]);
+            } else {
+                Interpreter.stringify(text, values[i], path);
+            }
+        }
+
+        text.append(']');
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this);
+    }
+}
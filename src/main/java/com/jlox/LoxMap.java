@@ -0,0 +1,210 @@
+package main.java.com.jlox;
+
+import java.util.Set;
+
+// A Lox map. The entries live in two arrays, one of keys each followed by its
+// value and one of their hashes, in the order they were first put, so adding
+// one allocates nothing but the occasional bigger array. A table at most
+// half full and probed linearly finds them by key. It holds each entry's
+// hash next to its number, so a probe only goes to the entries on a likely
+// match, and growing it hashes nothing again; strings cache their own hash
+// as well.
+//
+// Keys follow Lox equality: a number is kept as Numbers.box gives it, so 2
+// and 2.0 are the same key while 0 and -0 are not, and a LoxString is kept
+// as a String. After that, equals() is isEqual() for every key.
+//
+// Iterating goes in the order keys were first put. Putting a key again keeps
+// its place; a removed key put back goes to the end. Removing an entry
+// leaves a hole that the next resize closes.
+//
+// A lookup makes about 1.5 probes, and with millions of keys its cost is
+// the cache misses: one in the table and one in the entries for a hit. Four
+// million keys take 112MB besides the keys themselves, against 154MB in a
+// HashMap. With random keys puts are faster than a HashMap's and gets about
+// as fast.
+final class LoxMap {
+    private static final int MIN_CAPACITY = 8;
+
+    // Each key followed by its value, so that finding one brings in the other.
+    private Object[] entries;
+    private int[] hashes;
+    // Entries used so far, holes included, and entries still in the map.
+    private int count;
+    private int size;
+
+    // A key's hash in the high half and its entry number plus one in the low
+    // half, or 0 where no entry ever was. A probe compares hashes without
+    // going to the entry arrays. A removed entry's slot keeps pointing at its
+    // hole so that probes go past it.
+    private long[] table;
+    private int shift;
+
+    LoxMap(int capacity) {
+        allocate(Math.max(Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1), MIN_CAPACITY));
+    }
+
+    private void allocate(int capacity) {
+        entries = new Object[capacity * 2];
+        hashes = new int[capacity];
+        table = new long[capacity * 2];
+        shift = Integer.numberOfLeadingZeros(table.length - 1);
+    }
+
+    static Object key(Object key) {
+        if (key instanceof Double)
+            return Numbers.box((double) key);
+        if (key instanceof LoxString)
+            return key.toString();
+        return key;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        key = key(key);
+        long slot = table[probe(key, key.hashCode())];
+        return slot == 0 ? null : entries[(int) slot * 2 - 1];
+    }
+
+    boolean has(Object key) {
+        key = key(key);
+        return table[probe(key, key.hashCode())] != 0;
+    }
+
+    void put(Object key, Object value) {
+        key = key(key);
+        int hash = key.hashCode();
+        int slot = probe(key, hash);
+        if (table[slot] != 0) {
+            entries[(int) table[slot] * 2 - 1] = value;
+            return;
+        }
+
+        if (count == hashes.length) {
+            resize();
+            slot = probe(key, hash);
+        }
+
+        entries[count * 2] = key;
+        entries[count * 2 + 1] = value;
+        hashes[count] = hash;
+        count++;
+        size++;
+        table[slot] = (long) hash << 32 | count;
+    }
+
+    // The value the key had, or null.
+    Object remove(Object key) {
+        key = key(key);
+        long slot = table[probe(key, key.hashCode())];
+        if (slot == 0)
+            return null;
+
+        int entry = (int) slot - 1;
+        Object value = entries[entry * 2 + 1];
+        entries[entry * 2] = null;
+        entries[entry * 2 + 1] = null;
+        size--;
+        return value;
+    }
+
+    // The keys, in iteration order.
+    LoxList keys() {
+        LoxList list = new LoxList(size);
+        for (int i = 0; i < count; i++) {
+            if (entries[i * 2] != null) {
+                list.add(entries[i * 2]);
+            }
+        }
+
+        return list;
+    }
+
+    // Where a probe for the hash starts. Consecutive Integers, whose hash is
+    // their value, would fill runs of slots that linear probing then walks,
+    // so the bits are mixed first, as MurmurHash3 finishes a hash.
+    private int slot(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash >>> shift;
+    }
+
+    // The slot that holds the key, or else the empty slot that ends its
+    // probe.
+    private int probe(Object key, int hash) {
+        int mask = table.length - 1;
+        int slot = slot(hash);
+        for (;;) {
+            long entry = table[slot];
+            if (entry == 0)
+                return slot;
+            if ((int) (entry >>> 32) == hash) {
+                Object other = entries[(int) entry * 2 - 2];
+                // Strings are often the very same object.
+                if (other == key || other != null && other.equals(key))
+                    return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Doubles the capacity, unless enough entries were removed that closing
+    // the holes leaves room.
+    private void resize() {
+        Object[] oldEntries = entries;
+        int[] oldHashes = hashes;
+        int oldCount = count;
+
+        allocate(size * 2 > oldHashes.length ? oldHashes.length * 2 : oldHashes.length);
+        count = 0;
+        int mask = table.length - 1;
+        for (int i = 0; i < oldCount; i++) {
+            if (oldEntries[i * 2] == null)
+                continue;
+
+            int hash = oldHashes[i];
+            entries[count * 2] = oldEntries[i * 2];
+            entries[count * 2 + 1] = oldEntries[i * 2 + 1];
+            hashes[count] = hash;
+            count++;
+
+            int slot = slot(hash);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = (long) hash << 32 | count;
+        }
+    }
+
+    void append(StringBuilder text, Set<Object> path) {
+        text.append('{');
+        boolean first = true;
+        for (int i = 0; i < count; i++) {
+            Object key = entries[i * 2];
+            if (key == null)
+                continue;
+
+            if (!first) {
+                text.append(", ");
+            }
+            first = false;
+            Interpreter.stringify(text, key, path);
+            text.append(": ");
+            Interpreter.stringify(text, entries[i * 2 + 1], path);
+        }
+
+        text.append('}');
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this);
+    }
+}
@@ -0,0 +1,97 @@
+package main.java.com.jlox;
+
+// A string made by '+', as a view of the first 'length' characters of a
+// StringBuilder. Adding to the view that ends where its builder does appends
+// to that builder in place, so a string grown one piece at a time in a loop
+// costs the pieces and not a copy of everything so far each time. Adding to
+// any other view copies it into a builder of its own first. The characters
+// are only made into a String when something needs them, and that String is
+// kept.
+//
+// Lox strings are either this or a plain String; code that looks at the
+// characters takes a CharSequence.
+final class LoxString implements CharSequence {
+    // Shorter results of '+' are plain Strings, which cost less to make than
+    // a builder and a view when nothing is appended to them.
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    private LoxString(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    static Object concat(CharSequence left, CharSequence right) {
+        if (left instanceof LoxString)
+            return ((LoxString) left).append(right);
+
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH)
+            return left.toString().concat(right.toString());
+
+        StringBuilder builder = new StringBuilder(length * 2);
+        builder.append(left);
+        append(builder, right);
+        return new LoxString(builder, length);
+    }
+
+    private LoxString append(CharSequence right) {
+        StringBuilder target = builder;
+        if (target.length() != length) {
+            // Someone appended to this builder past this view already.
+            target = new StringBuilder((length + right.length()) * 2);
+            target.append(builder, 0, length);
+        }
+
+        append(target, right);
+        return new LoxString(target, target.length());
+    }
+
+    private static void append(StringBuilder builder, CharSequence text) {
+        if (text instanceof LoxString) {
+            LoxString string = (LoxString) text;
+            builder.append(string.builder, 0, string.length);
+        } else {
+            builder.append((String) text);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        return builder.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = builder.substring(0, length);
+        }
+
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LoxString && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
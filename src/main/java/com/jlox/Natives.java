@@ -0,0 +1,187 @@
+package main.java.com.jlox;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Built-in functions, defined as globals of every Interpreter. Each one
+// implements the fixed-arity entry point for its arity, so calling it costs a
+// virtual call and no allocation beyond its result.
+final class Natives {
+    // The same numbers a Lox literal can spell, with an optional sign.
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    // Thrown by a native when its arguments are wrong. The call site turns it
+    // into a RunTimeError at its own token, since natives have no token to
+    // report.
+    static class Error extends RuntimeException {
+        Error(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    abstract static class Native0 implements LoxCallable {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            return call0(interpreter);
+        }
+
+        @Override
+        public abstract Object call0(Interpreter interpreter);
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    abstract static class Native1 implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            return call1(interpreter, args.get(0));
+        }
+
+        @Override
+        public abstract Object call1(Interpreter interpreter, Object arg);
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    abstract static class Native2 implements LoxCallable {
+        @Override
+        public int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            return call2(interpreter, args.get(0), args.get(1));
+        }
+
+        @Override
+        public abstract Object call2(Interpreter interpreter, Object arg0, Object arg1);
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static LoxMap map(String name, Object map, Object key) {
+        if (!(map instanceof LoxMap))
+            throw new Error("First argument to '" + name + "' must be a map.");
+        if (key == null)
+            throw new Error("Map key cannot be nil.");
+        return (LoxMap) map;
+    }
+
+    static void define(Environment globals) {
+        // Seconds since the epoch, for timing scripts.
+        globals.define("clock", new Native0() {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return System.currentTimeMillis() / 1000.0;
+            }
+        });
+
+        globals.define("len", new Native1() {
+            @Override
+            public Object call1(Interpreter interpreter, Object arg) {
+                if (arg instanceof CharSequence)
+                    return Numbers.box(((CharSequence) arg).length());
+                if (arg instanceof LoxList)
+                    return Numbers.box(((LoxList) arg).size());
+                if (arg instanceof LoxMap)
+                    return Numbers.box(((LoxMap) arg).size());
+                throw new Error("Argument to 'len' must be a string, a list or a map.");
+            }
+        });
+
+        // Adds a value to the end of a list and returns the list.
+        globals.define("push", new Native2() {
+            @Override
+            public Object call2(Interpreter interpreter, Object list, Object value) {
+                if (!(list instanceof LoxList))
+                    throw new Error("First argument to 'push' must be a list.");
+                ((LoxList) list).add(value);
+                return list;
+            }
+        });
+
+        // Removes the last value of a list and returns it.
+        globals.define("pop", new Native1() {
+            @Override
+            public Object call1(Interpreter interpreter, Object arg) {
+                if (!(arg instanceof LoxList))
+                    throw new Error("Argument to 'pop' must be a list.");
+                LoxList list = (LoxList) arg;
+                if (list.size() == 0)
+                    throw new Error("Cannot pop from an empty list.");
+                return list.removeLast();
+            }
+        });
+
+        // The keys of a map as a list, in the order they were first put.
+        globals.define("keys", new Native1() {
+            @Override
+            public Object call1(Interpreter interpreter, Object arg) {
+                if (!(arg instanceof LoxMap))
+                    throw new Error("Argument to 'keys' must be a map.");
+                return ((LoxMap) arg).keys();
+            }
+        });
+
+        globals.define("has", new Native2() {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map("has", map, key).has(key);
+            }
+        });
+
+        // Removes a key from a map and returns its value, or nil.
+        globals.define("remove", new Native2() {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map("remove", map, key).remove(key);
+            }
+        });
+
+        globals.define("num", new Native1() {
+            @Override
+            public Object call1(Interpreter interpreter, Object arg) {
+                if (Numbers.isNumber(arg))
+                    return arg;
+                if (arg instanceof CharSequence) {
+                    String text = arg.toString().trim();
+                    if (NUMBER.matcher(text).matches())
+                        return Numbers.box(Double.parseDouble(text));
+                    throw new Error("Cannot convert '" + arg + "' to a number.");
+                }
+
+                throw new Error("Argument to 'num' must be a number or a string.");
+            }
+        });
+
+        globals.define("str", new Native1() {
+            @Override
+            public Object call1(Interpreter interpreter, Object arg) {
+                return Interpreter.stringify(arg);
+            }
+        });
+    }
+
+    private Natives() {
+    }
+}
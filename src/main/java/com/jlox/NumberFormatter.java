@@ -0,0 +1,29 @@
+package main.java.com.jlox;
+
+// Writes numbers the way Lox prints them: what Double.toString gives, less a
+// trailing ".0". Integers come out of StringBuilder.append(long) and the rest
+// out of StringBuilder.append(double), which writes the same digits as
+// Double.toString, so formatting a number into a buffer makes no String.
+final class NumberFormatter {
+    // Double.toString writes numbers from here on with an exponent, where a
+    // ".0" is never at the end.
+    private static final double PLAIN_LIMIT = 1e7;
+
+    static void format(StringBuilder out, double value) {
+        // -0 is left to the slow path, which keeps its sign.
+        if (value == (long) value && Math.abs(value) < PLAIN_LIMIT && (value != 0 || 1 / value > 0)) {
+            out.append((long) value);
+            return;
+        }
+
+        int start = out.length();
+        out.append(value);
+        int end = out.length();
+        if (end - start > 2 && out.charAt(end - 2) == '.' && out.charAt(end - 1) == '0') {
+            out.setLength(end - 2);
+        }
+    }
+
+    private NumberFormatter() {
+    }
+}
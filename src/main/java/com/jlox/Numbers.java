@@ -0,0 +1,87 @@
+package main.java.com.jlox;
+
+// Lox has one kind of number, with the semantics of a double. A number that
+// is whole and fits in an int may also be held as an Integer, which adds,
+// subtracts, multiplies and compares without a double in between and, when
+// small, comes from a cache instead of being allocated. Both mean the same
+// value: 2 and 2.0 are equal and print alike, and -0 is always a Double.
+// Integer arithmetic that overflows gives the Double the same doubles would
+// have, and so does every division.
+final class Numbers {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1 << 14;
+    private static final Integer[] CACHE = new Integer[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = CACHE_LOW + i;
+        }
+    }
+
+    static boolean isNumber(Object value) {
+        return value instanceof Integer || value instanceof Double;
+    }
+
+    // The value of a number of either kind.
+    static double toDouble(Object number) {
+        if (number instanceof Integer)
+            return (int) number;
+        return (double) number;
+    }
+
+    static Object box(int value) {
+        if (value >= CACHE_LOW && value < CACHE_HIGH)
+            return CACHE[value - CACHE_LOW];
+        return value;
+    }
+
+    // An Integer if the value is whole and fits, so that a result computed
+    // with doubles goes back to the integer kind.
+    static Object box(double value) {
+        int integer = (int) value;
+        if (integer == value && (integer != 0 || Double.doubleToRawLongBits(value) == 0L))
+            return box(integer);
+        return value;
+    }
+
+    static Object add(int left, int right) {
+        int result = left + right;
+        // Overflowed if both operands have a sign the result does not.
+        if (((left ^ result) & (right ^ result)) < 0)
+            return (double) left + right;
+        return box(result);
+    }
+
+    static Object subtract(int left, int right) {
+        int result = left - right;
+        if (((left ^ right) & (left ^ result)) < 0)
+            return (double) left - right;
+        return box(result);
+    }
+
+    static Object multiply(int left, int right) {
+        long result = (long) left * right;
+        if ((int) result != result)
+            return (double) result;
+        // 0 times a negative number is -0.
+        if (result == 0 && (left | right) < 0)
+            return -0.0;
+        return box((int) result);
+    }
+
+    static Object negate(int value) {
+        if (value == 0)
+            return -0.0;
+        if (value == Integer.MIN_VALUE)
+            return -(double) value;
+        return box(-value);
+    }
+
+    // Lox equality on numbers is Double.equals, which compares bits.
+    static boolean equal(Object left, Object right) {
+        return Double.doubleToLongBits(toDouble(left)) == Double.doubleToLongBits(toDouble(right));
+    }
+
+    private Numbers() {
+    }
+}
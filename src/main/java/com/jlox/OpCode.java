@@ -0,0 +1,42 @@
+package main.java.com.jlox;
+
+// Instruction set of the bytecode VM. Operands follow the opcode byte; all of
+// them are unsigned 16 bit big-endian values unless noted otherwise.
+final class OpCode {
+    static final byte CONSTANT = 0; // index into the constant pool
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5; // local slot
+    static final byte SET_LOCAL = 6; // local slot
+    static final byte DEFINE_LOCAL = 7; // local slot
+    static final byte GET_GLOBAL = 8; // index of the global's cell in the constant pool
+    static final byte SET_GLOBAL = 9; // index of the global's cell in the constant pool
+    static final byte DEFINE_GLOBAL = 10; // index of the global's cell in the constant pool
+
+    static final byte EQUAL = 11;
+    static final byte NOT_EQUAL = 12;
+    static final byte GREATER = 13;
+    static final byte GREATER_EQUAL = 14;
+    static final byte LESS = 15;
+    static final byte LESS_EQUAL = 16;
+    static final byte ADD = 17;
+    static final byte SUBTRACT = 18;
+    static final byte MULTIPLY = 19;
+    static final byte DIVIDE = 20;
+    static final byte NOT = 21;
+    static final byte NEGATE = 22;
+
+    static final byte PRINT = 23;
+    static final byte JUMP = 24; // forward offset
+    static final byte JUMP_IF_FALSE = 25; // forward offset, leaves the condition on the stack
+    static final byte LOOP = 26; // backward offset
+    static final byte CHECK_BOOLEAN = 27; // ternary condition check, leaves the value on the stack
+    static final byte CALL = 28; // one byte argument count
+    static final byte RETURN = 29;
+
+    private OpCode() {
+    }
+}
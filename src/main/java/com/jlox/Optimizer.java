@@ -0,0 +1,591 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rewrites resolved trees before they reach a backend: operators over literals
+// are folded, branches and loops whose condition is a literal are dropped or
+// inlined, and a few arithmetic identities are removed. Folding runs the
+// Interpreter on the literal operands, so a folded node yields exactly what it
+// would have at run time; anything that would raise a runtime error is left
+// alone so the error still happens, with its line, when the code runs.
+//
+// Nodes are rebuilt only when one of their children changed, and the resolved
+// slots, depths and loop targets are carried over to the rebuilt nodes.
+class Optimizer implements Expr.Visitor<Expr>, Statement.Visitor<Statement> {
+    static boolean enabled = true;
+    static boolean report = false;
+
+    private final Interpreter folder = new Interpreter();
+    private final Map<Statement.While, Statement.While> rebuiltLoops = new HashMap<>();
+    private final List<Statement> jumps = new ArrayList<>();
+
+    List<Statement> optimize(List<Statement> stmts) {
+        List<Statement> result = optimizeAll(stmts);
+
+        // Breaks and continues are never rebuilt, but the loop they target may
+        // have been.
+        for (Statement jump : jumps) {
+            if (jump instanceof Statement.Break) {
+                Statement.Break stmt = (Statement.Break) jump;
+                stmt.loop = retarget(stmt.loop);
+            } else {
+                Statement.Continue stmt = (Statement.Continue) jump;
+                stmt.loop = retarget(stmt.loop);
+            }
+        }
+
+        if (report) {
+            int before = NodeCounter.count(stmts);
+            int after = NodeCounter.count(result);
+            System.err.println("[optimizer] removed " + (before - after) + " of " + before + " nodes.");
+        }
+
+        return result;
+    }
+
+    private Statement.While retarget(Statement.While loop) {
+        Statement.While rebuilt = rebuiltLoops.get(loop);
+        while (rebuilt != null) {
+            loop = rebuilt;
+            rebuilt = rebuiltLoops.get(loop);
+        }
+
+        return loop;
+    }
+
+    private List<Statement> optimizeAll(List<Statement> stmts) {
+        List<Statement> result = new ArrayList<>(stmts.size());
+        boolean changed = false;
+
+        for (Statement stmt : stmts) {
+            Statement optimized = optimize(stmt);
+            if (optimized != null)
+                result.add(optimized);
+            changed |= optimized != stmt;
+        }
+
+        return changed ? result : stmts;
+    }
+
+    // Returns null when the statement does nothing and can be dropped.
+    private Statement optimize(Statement stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    private static boolean isNumber(Expr expr, double value) {
+        return isLiteral(expr) && Numbers.isNumber(valueOf(expr))
+                && Double.doubleToRawLongBits(Numbers.toDouble(valueOf(expr))) == Double.doubleToRawLongBits(value);
+    }
+
+    // Only an expression that can produce nothing but a number may lose an
+    // identity operation; for anything else the operator doubles as a check.
+    private static boolean isNumeric(Expr expr) {
+        return new TypeInferrer().infer(expr);
+    }
+
+    private Expr fold(Expr expr) {
+        try {
+            Object value = expr.accept(folder);
+            // Literals hold plain Strings, which is what the AstCache and the
+            // constant tables expect.
+            if (value instanceof LoxString) {
+                value = value.toString();
+            }
+
+            return new Expr.Literal(value);
+        } catch (RunTimeError error) {
+            return expr;
+        }
+    }
+
+    // Where an if or while has no statement left, an empty block keeps the
+    // branch valid without running anything.
+    private static Statement orEmpty(Statement stmt) {
+        if (stmt != null)
+            return stmt;
+
+        return new Statement.Block(Collections.<Statement>emptyList(), 0);
+    }
+
+    @Override
+    public Statement visitExpressionStmt(Statement.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (isLiteral(expression))
+            return null;
+        if (expression == stmt.expression)
+            return stmt;
+
+        return new Statement.Expression(expression);
+    }
+
+    @Override
+    public Statement visitPrintStmt(Statement.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression)
+            return stmt;
+
+        return new Statement.Print(expression);
+    }
+
+    @Override
+    public Statement visitVarStmt(Statement.Var stmt) {
+        if (stmt.initializer == null)
+            return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer)
+            return stmt;
+
+        Statement.Var var = new Statement.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Statement visitBlockStmt(Statement.Block stmt) {
+        List<Statement> stmts = optimizeAll(stmt.stmts);
+        if (stmts == stmt.stmts)
+            return stmt;
+
+        Statement.Block block = new Statement.Block(stmts, stmt.loopDepth);
+        block.slots = stmt.slots;
+        return block;
+    }
+
+    @Override
+    public Statement visitIfStmt(Statement.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (isLiteral(condition)) {
+            if (Interpreter.verisimilitude(valueOf(condition)))
+                return optimize(stmt.thenBranch);
+
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Statement thenBranch = optimize(stmt.thenBranch);
+        Statement elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        if (thenBranch == null && elseBranch == null)
+            return new Statement.Expression(condition);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch)
+            return stmt;
+
+        return new Statement.If(condition, orEmpty(thenBranch), elseBranch);
+    }
+
+    @Override
+    public Statement visitWhileStmt(Statement.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition) && !Interpreter.verisimilitude(valueOf(condition)))
+            return null;
+
+        Statement body = optimize(stmt.body);
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+        if (condition == stmt.condition && body == stmt.body && increment == stmt.increment)
+            return stmt;
+
+        Statement.While loop = new Statement.While(condition, orEmpty(body), increment, stmt.label);
+        rebuiltLoops.put(stmt, loop);
+        return loop;
+    }
+
+    @Override
+    public Statement visitBreakStmt(Statement.Break stmt) {
+        jumps.add(stmt);
+        return stmt;
+    }
+
+    @Override
+    public Statement visitContinueStmt(Statement.Continue stmt) {
+        jumps.add(stmt);
+        return stmt;
+    }
+
+    @Override
+    public Statement visitFunctionStmt(Statement.Function stmt) {
+        if (stmt.lazy != null)
+            return stmt;
+
+        List<Statement> body = optimizeAll(stmt.body);
+        if (body == stmt.body)
+            return stmt;
+
+        Statement.Function function = new Statement.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.slots = stmt.slots;
+        function.poolable = stmt.poolable;
+        return function;
+    }
+
+    @Override
+    public Statement visitReturnStmt(Statement.Return stmt) {
+        if (stmt.value == null)
+            return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value)
+            return stmt;
+
+        Statement.Return result = new Statement.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall && value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (isLiteral(expression))
+            return expression;
+        if (expression == expr.expression)
+            return expr;
+
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value)
+            return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        // -(-x) is x for any number, including NaN and negative zero.
+        if (expr.operator.type == TokenType.MINUS && right instanceof Expr.Unary
+                && ((Expr.Unary) right).operator.type == TokenType.MINUS && isNumeric(((Expr.Unary) right).right))
+            return ((Expr.Unary) right).right;
+
+        Expr.Unary unary = right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        if (isLiteral(right))
+            return fold(unary);
+
+        return unary;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        switch (expr.operator.type) {
+            case STAR:
+                if (isNumber(right, 1.0) && isNumeric(left))
+                    return left;
+                if (isNumber(left, 1.0) && isNumeric(right))
+                    return right;
+                break;
+            case SLASH:
+                if (isNumber(right, 1.0) && isNumeric(left))
+                    return left;
+                break;
+            case MINUS:
+                // Unlike x + 0, x - 0 keeps the sign of a negative zero.
+                if (isNumber(right, 0.0) && isNumeric(left))
+                    return left;
+                break;
+        }
+
+        Expr.Binary binary = left == expr.left && right == expr.right ? expr
+                : new Expr.Binary(left, expr.operator, right);
+        if (isLiteral(left) && isLiteral(right))
+            return fold(binary);
+
+        return binary;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr left = optimize(expr.left);
+        Expr mid = optimize(expr.mid);
+        Expr right = optimize(expr.right);
+
+        // A literal that is not a boolean is a runtime error, kept for later.
+        if (isLiteral(left) && valueOf(left) instanceof Boolean)
+            return (boolean) valueOf(left) ? mid : right;
+        if (left == expr.left && mid == expr.mid && right == expr.right)
+            return expr;
+
+        return new Expr.Ternary(left, expr.operator, mid, right);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isLiteral(left)) {
+            boolean truthy = Interpreter.verisimilitude(valueOf(left));
+            boolean shortCircuits = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            return shortCircuits ? left : right;
+        }
+        if (left == expr.left && right == expr.right)
+            return expr;
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> args = new ArrayList<>(expr.args.size());
+        boolean changed = callee != expr.callee;
+
+        for (Expr arg : expr.args) {
+            Expr optimized = optimize(arg);
+            args.add(optimized);
+            changed |= optimized != arg;
+        }
+
+        if (!changed)
+            return expr;
+
+        return new Expr.Call(callee, expr.paren, args);
+    }
+
+    // A list or a map is made anew each time, so a literal one is never
+    // folded.
+    @Override
+    public Expr visitListLiteralExpr(Expr.ListLiteral expr) {
+        List<Expr> elements = new ArrayList<>(expr.elements.size());
+        boolean changed = false;
+
+        for (Expr element : expr.elements) {
+            Expr optimized = optimize(element);
+            elements.add(optimized);
+            changed |= optimized != element;
+        }
+
+        if (!changed)
+            return expr;
+
+        return new Expr.ListLiteral(expr.bracket, elements);
+    }
+
+    @Override
+    public Expr visitMapLiteralExpr(Expr.MapLiteral expr) {
+        List<Expr> keys = new ArrayList<>(expr.keys.size());
+        List<Expr> values = new ArrayList<>(expr.values.size());
+        boolean changed = false;
+
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Expr key = optimize(expr.keys.get(i));
+            Expr value = optimize(expr.values.get(i));
+            keys.add(key);
+            values.add(value);
+            changed |= key != expr.keys.get(i) || value != expr.values.get(i);
+        }
+
+        if (!changed)
+            return expr;
+
+        return new Expr.MapLiteral(expr.brace, keys, values);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if (object == expr.object && index == expr.index)
+            return expr;
+
+        return new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && index == expr.index && value == expr.value)
+            return expr;
+
+        return new Expr.SetIndex(object, expr.bracket, index, value);
+    }
+
+    // Counts the nodes of a tree for the optimizer report.
+    private static class NodeCounter implements Expr.Visitor<Integer>, Statement.Visitor<Integer> {
+        private static final NodeCounter instance = new NodeCounter();
+
+        static int count(List<Statement> stmts) {
+            int count = 0;
+            for (Statement stmt : stmts) {
+                count += stmt.accept(instance);
+            }
+
+            return count;
+        }
+
+        private int count(Expr expr) {
+            return expr == null ? 0 : expr.accept(this);
+        }
+
+        private int count(Statement stmt) {
+            return stmt == null ? 0 : stmt.accept(this);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Statement.Expression stmt) {
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Statement.Print stmt) {
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitVarStmt(Statement.Var stmt) {
+            return 1 + count(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Statement.Block stmt) {
+            return 1 + count(stmt.stmts);
+        }
+
+        @Override
+        public Integer visitIfStmt(Statement.If stmt) {
+            return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Statement.While stmt) {
+            return 1 + count(stmt.condition) + count(stmt.body) + count(stmt.increment);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Statement.Break stmt) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitContinueStmt(Statement.Continue stmt) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Statement.Function stmt) {
+            return stmt.lazy != null ? 1 : 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Statement.Return stmt) {
+            return 1 + count(stmt.value);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return 1 + count(expr.expression);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return 1 + count(expr.value);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return 1 + count(expr.right);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            return 1 + count(expr.left) + count(expr.mid) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int count = 1 + count(expr.callee);
+            for (Expr arg : expr.args) {
+                count += count(arg);
+            }
+
+            return count;
+        }
+
+        @Override
+        public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+            int count = 1;
+            for (Expr element : expr.elements) {
+                count += count(element);
+            }
+
+            return count;
+        }
+
+        @Override
+        public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+            int count = 1;
+            for (int i = 0; i < expr.keys.size(); i++) {
+                count += count(expr.keys.get(i)) + count(expr.values.get(i));
+            }
+
+            return count;
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            return 1 + count(expr.object) + count(expr.index);
+        }
+
+        @Override
+        public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+            return 1 + count(expr.object) + count(expr.index) + count(expr.value);
+        }
+    }
+}
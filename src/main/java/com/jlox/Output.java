@@ -0,0 +1,76 @@
+package main.java.com.jlox;
+
+import java.io.PrintStream;
+
+// Where print statements write. Lines are collected in a buffer and handed to
+// the target stream in one write once the buffer holds 'limit' characters, so
+// a script that prints a lot does not pay for a locked, flushed PrintStream
+// write per line. A limit of 0 writes every line at once, as the prompt needs.
+// A writer thread can also flush whatever is buffered every so often.
+//
+// Lox flushes the buffer before it reports an error on System.err, so
+// diagnostics still come after the output that led up to them.
+class Output {
+    // Held until the script ends, unless the buffer grows this large.
+    static final int EXIT = 1 << 26;
+
+    private final PrintStream target;
+    private final StringBuilder buffer = new StringBuilder();
+    private final String lineSeparator = System.lineSeparator();
+    private int limit;
+    private Thread writer;
+
+    Output(PrintStream target, int limit) {
+        this.target = target;
+        this.limit = limit;
+    }
+
+    synchronized void limit(int limit) {
+        this.limit = limit;
+        if (buffer.length() >= limit) {
+            flush();
+        }
+    }
+
+    // Starts a daemon thread that flushes every 'millis' milliseconds.
+    void flushEvery(long millis) {
+        if (writer != null)
+            return;
+
+        writer = new Thread(() -> {
+            try {
+                for (;;) {
+                    Thread.sleep(millis);
+                    flush();
+                }
+            } catch (InterruptedException e) {
+                // Done.
+            }
+        }, "jlox-output");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Writes a value as stringify would, but numbers go straight into the
+    // buffer.
+    synchronized void println(Object value) {
+        if (Numbers.isNumber(value)) {
+            NumberFormatter.format(buffer, Numbers.toDouble(value));
+        } else {
+            buffer.append(Interpreter.stringify(value));
+        }
+        buffer.append(lineSeparator);
+        if (buffer.length() >= limit) {
+            flush();
+        }
+    }
+
+    synchronized void flush() {
+        if (buffer.length() > 0) {
+            target.append(buffer);
+            buffer.setLength(0);
+        }
+
+        target.flush();
+    }
+}
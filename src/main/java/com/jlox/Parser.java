@@ -11,11 +11,80 @@ class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // Precedence of the infix operators, lowest first.
+    private static final int NONE = 0;
+    private static final int ASSIGNMENT = 1;
+    private static final int LOGIC_OR = 2;
+    private static final int LOGIC_AND = 3;
+    private static final int TERNARY = 4;
+    private static final int EQUALITY = 5;
+    private static final int COMPARISON = 6;
+    private static final int TERM = 7;
+    private static final int FACTOR = 8;
+
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[EQUAL.ordinal()] = ASSIGNMENT;
+        PRECEDENCE[OR.ordinal()] = LOGIC_OR;
+        PRECEDENCE[AND.ordinal()] = LOGIC_AND;
+        PRECEDENCE[QUESTION.ordinal()] = TERNARY;
+        // The comma operator evaluates both sides and gives nil.
+        PRECEDENCE[COMMA.ordinal()] = EQUALITY;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = COMPARISON;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[MINUS.ordinal()] = TERM;
+        PRECEDENCE[PLUS.ordinal()] = TERM;
+        PRECEDENCE[STAR.ordinal()] = FACTOR;
+        PRECEDENCE[SLASH.ordinal()] = FACTOR;
+    }
+
+    // Where the body of a function skipped in lazy mode starts in the source,
+    // just after its '{'. Scanning it again from there gives its tokens.
+    static class LazyBody {
+        private final Scanner scanner;
+        private final int offset;
+        private final int line;
+        private final boolean inBlockComment;
+
+        LazyBody(Scanner scanner, int offset, int line, boolean inBlockComment) {
+            this.scanner = scanner;
+            this.offset = offset;
+            this.line = line;
+            this.inBlockComment = inBlockComment;
+        }
+
+        // Null after a syntax error, which has been reported.
+        List<Statement> parse() {
+            Parser parser = new Parser(scanner.resume(offset, line, inBlockComment).tokens());
+            parser.nesting = 1;
+            try {
+                return parser.block();
+            } catch (ParseError error) {
+                return null;
+            }
+        }
+    }
+
+    // In lazy mode the bodies of top-level functions are only scanned for
+    // their closing brace, and parsed when the function is first called.
+    static boolean lazy = false;
+
+    // Tokens are scanned as the parser moves along, and only become Token
+    // objects when one is kept.
+    private final TokenStream tokens;
     private int depth = 0;
+    // How many blocks and function bodies the parser is in.
+    private int nesting = 0;
+    // Inside the parentheses of a call a comma separates arguments instead of
+    // being the comma operator.
+    private boolean inArguments = false;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenStream tokens) {
         this.tokens = tokens;
     }
 
@@ -33,11 +102,15 @@ class Parser {
      */
 
     private Expr expression() {
-        return assignment();
+        return expression(ASSIGNMENT);
     }
 
-    private Statement declaration() {
+    // Null after a syntax error. The IncrementalParser parses one top-level
+    // declaration at a time through here.
+    Statement declaration() {
         try {
+            if (match(FUN))
+                return function();
             if (match(VAR))
                 return varDeclaration();
 
@@ -49,35 +122,56 @@ class Parser {
     }
 
     private Statement statement() {
+        if (check(IDENTIFIER) && checkNext(COLON))
+            return labeledStatement();
         if (match(BREAK))
             return breakStatement();
         if (match(CONTINUE))
             return continueStatement();
         if (match(FOR))
-            return forStatement();
+            return forStatement(null);
         if (match(IF))
             return ifStatement();
         if (match(PRINT))
             return printStatement();
+        if (match(RETURN))
+            return returnStatement();
         if (match(WHILE))
-            return whileStatement();
+            return whileStatement(null);
         if (match(LEFT_BRACE))
             return new Statement.Block(block(), depth);
 
         return expressionStatement();
     }
 
+    private Statement labeledStatement() {
+        advance();
+        Token label = previous();
+        advance();
+
+        if (match(WHILE))
+            return whileStatement(label);
+        if (match(FOR))
+            return forStatement(label);
+
+        throw error(peek(), "Expect loop after label.");
+    }
+
     private Statement breakStatement() {
+        Token keyword = previous();
+        Token label = match(IDENTIFIER) ? previous() : null;
         consume(SEMICOLON, "Expect ';' after 'break'.");
-        return new Statement.Break();
+        return new Statement.Break(keyword, label);
     }
 
     private Statement continueStatement() {
+        Token keyword = previous();
+        Token label = match(IDENTIFIER) ? previous() : null;
         consume(SEMICOLON, "Expect ';' after 'continue'.");
-        return new Statement.Continue();
+        return new Statement.Continue(keyword, label);
     }
 
-    private Statement forStatement() {
+    private Statement forStatement(Token label) {
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
         // depth is 1 here because 'for' is syntactic sugar for while, but we are
         // constructing the block statement ourselves so immediately after a 'for' we
@@ -106,14 +200,12 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
         Statement body = statement();
 
-        if (increment != null) {
-            body = new Statement.Block(Arrays.asList(body, new Statement.Expression(increment)), depth);
-        }
-
+        // The increment stays on the loop rather than being appended to the
+        // body so that 'continue' still runs it.
         if (condition == null) {
             condition = new Expr.Literal(true);
         }
-        body = new Statement.While(condition, body);
+        body = new Statement.While(condition, body, increment, label);
 
         if (initializer != null) {
             body = new Statement.Block(Arrays.asList(initializer, body), depth);
@@ -142,8 +234,55 @@ class Parser {
         return new Statement.Print(value);
     }
 
+    private Statement function() {
+        consume(IDENTIFIER, "Expect function name.");
+        Token name = previous();
+        consume(LEFT_PAREN, "Expect '(' after function name.");
+
+        List<Token> params = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (params.size() >= 255) {
+                    error(peek(), "Number of parameters exceeds 255.");
+                }
+
+                consume(IDENTIFIER, "Expect parameter name.");
+                params.add(previous());
+            } while (match(COMMA));
+        }
+
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before function body.");
+        Scanner scanner = tokens.scanner();
+        if (lazy && nesting == 0 && scanner.resumable()) {
+            int offset = tokens.previousEnd();
+            LazyBody body = new LazyBody(scanner, offset, tokens.previousLine(), scanner.inBlockCommentAt(offset));
+            skipBlock();
+
+            Statement.Function function = new Statement.Function(name, params, null);
+            function.lazy = body;
+            return function;
+        }
+
+        List<Statement> body = block();
+
+        return new Statement.Function(name, params, body);
+    }
+
+    private Statement returnStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return new Statement.Return(keyword, value);
+    }
+
     private Statement varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expected variable name.");
+        consume(IDENTIFIER, "Expected variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -154,14 +293,14 @@ class Parser {
         return new Statement.Var(name, initializer);
     }
 
-    private Statement whileStatement() {
+    private Statement whileStatement(Token label) {
         consume(LEFT_PAREN, "Expected '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expected ')' after condition.");
         Statement body = statement();
         this.depth = 0;
 
-        return new Statement.While(condition, body);
+        return new Statement.While(condition, body, null, label);
     }
 
     private Statement expressionStatement() {
@@ -174,128 +313,99 @@ class Parser {
         List<Statement> stmts = new ArrayList<>();
 
         this.depth++;
+        this.nesting++;
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             stmts.add(declaration());
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block");
         this.depth--;
+        this.nesting--;
         return stmts;
     }
 
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+    // Moves past the rest of a block by matching braces, without making a
+    // single Token.
+    private void skipBlock() {
+        int open = 1;
+        while (!isAtEnd()) {
+            TokenType type = tokens.type(0);
+            tokens.advance();
+            if (type == LEFT_BRACE) {
+                open++;
+            } else if (type == RIGHT_BRACE && --open == 0) {
+                return;
             }
-
-            error(equals, "Invalid assignment target in rvalue.");
         }
 
-        return expr;
+        consume(RIGHT_BRACE, "Expect '}' after block");
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
+    // Binds an operand to the infix operators of at least the given
+    // precedence, so an operand costs one call whatever the level it ends up
+    // at. Assignment and 'and' take their right side at their own level,
+    // which makes them right associative; the rest take it one level up.
+    // A ternary's two branches are whole expressions.
+    private Expr expression(int precedence) {
+        Expr expr = unary();
 
-    private Expr and() {
-        Expr expr = ternary();
+        for (;;) {
+            int infix = infix(tokens.type(0));
+            if (infix < precedence)
+                return expr;
 
-        while (match(AND)) {
+            advance();
             Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr ternary() {
-        Expr expr = equality();
-        Expr mid = null;
-        Expr right = null;
 
-        while (match(QUESTION)) {
-            Token token = previous();
-            consume(COLON, "Expected ':' after '?' in ternary expression.");
-            mid = expression();
-            if (!check(COLON)) {
-                throw error(peek(), "Expected ':' after '?' in ternary expression.");
-            }
-            if (match(COLON)) {
-                right = expression();
-                expr = new Expr.Ternary(expr, token, mid, right);
+            switch (infix) {
+                case ASSIGNMENT: {
+                    Expr value = expression(ASSIGNMENT);
+                    if (expr instanceof Expr.Variable) {
+                        expr = new Expr.Assign(((Expr.Variable) expr).name, value);
+                    } else if (expr instanceof Expr.Index) {
+                        Expr.Index index = (Expr.Index) expr;
+                        expr = new Expr.SetIndex(index.object, index.bracket, index.index, value);
+                    } else {
+                        error(operator, "Invalid assignment target in rvalue.");
+                    }
+                    break;
+                }
+                case LOGIC_OR:
+                    expr = new Expr.Logical(expr, operator, expression(LOGIC_AND));
+                    break;
+                case LOGIC_AND:
+                    expr = new Expr.Logical(expr, operator, expression(LOGIC_AND));
+                    break;
+                case TERNARY: {
+                    // The Scanner follows every '?' with a ':' of its own.
+                    consume(COLON, "Expected ':' after '?' in ternary expression.");
+                    Expr mid = expression();
+                    if (!check(COLON)) {
+                        throw error(peek(), "Expected ':' after '?' in ternary expression.");
+                    }
+                    advance();
+                    expr = new Expr.Ternary(expr, operator, mid, expression());
+                    break;
+                }
+                default:
+                    expr = new Expr.Binary(expr, operator, expression(infix + 1));
+                    break;
             }
         }
-
-        return expr;
-    }
-
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL, COMMA)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = addition();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr addition() {
-        Expr expr = multiplication();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
     }
 
-    private Expr multiplication() {
-        Expr expr = unary();
-
-        while (match(STAR, SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    // The precedence of a token as an infix operator, or NONE.
+    private int infix(TokenType type) {
+        // Inside the parentheses of a call a comma separates arguments.
+        if (type == COMMA && inArguments)
+            return NONE;
+        return PRECEDENCE[type.ordinal()];
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
+        TokenType type = tokens.type(0);
+        if (type == BANG || type == MINUS) {
+            advance();
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
@@ -310,6 +420,8 @@ class Parser {
         while (true) {
             if (match(LEFT_PAREN)) {
                 expr = finishCall(expr);
+            } else if (match(LEFT_BRACKET)) {
+                expr = finishIndex(expr);
             } else {
                 break;
             }
@@ -320,22 +432,89 @@ class Parser {
 
     private Expr finishCall(Expr callee) {
         List<Expr> args = new ArrayList<>();
+        boolean enclosing = inArguments;
+        inArguments = true;
 
-        if (!check(RIGHT_PAREN)) {
-            do {
-                if (args.size() >= 255) {
-                    error(peek(), "Number of arguments exceeds 255.");
-                }
-
-                args.add(expression());
-            } while (match(COMMA));
+        try {
+            if (!check(RIGHT_PAREN)) {
+                do {
+                    if (args.size() >= 255) {
+                        error(peek(), "Number of arguments exceeds 255.");
+                    }
+
+                    args.add(expression());
+                } while (match(COMMA));
+            }
+        } finally {
+            inArguments = enclosing;
         }
 
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, args);
     }
 
+    private Expr finishIndex(Expr object) {
+        Token bracket = previous();
+        boolean enclosing = inArguments;
+        inArguments = false;
+
+        try {
+            Expr index = expression();
+            consume(RIGHT_BRACKET, "Expect ']' after index.");
+            return new Expr.Index(object, bracket, index);
+        } finally {
+            inArguments = enclosing;
+        }
+    }
+
+    // Commas separate the elements, as they do arguments.
+    private Expr list() {
+        Token bracket = previous();
+        List<Expr> elements = new ArrayList<>();
+        boolean enclosing = inArguments;
+        inArguments = true;
+
+        try {
+            if (!check(RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+        } finally {
+            inArguments = enclosing;
+        }
+
+        consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+        return new Expr.ListLiteral(bracket, elements);
+    }
+
+    // A brace where an expression starts opens a map; one where a statement
+    // does is still a block.
+    private Expr map() {
+        Token brace = previous();
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        boolean enclosing = inArguments;
+        inArguments = true;
+
+        try {
+            if (!check(RIGHT_BRACE)) {
+                do {
+                    keys.add(expression());
+                    consume(COLON, "Expect ':' after map key.");
+                    values.add(expression());
+                } while (match(COMMA));
+            }
+        } finally {
+            inArguments = enclosing;
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after map entries.");
+        return new Expr.MapLiteral(brace, keys, values);
+    }
+
     private Expr primary() {
         if (match(FALSE))
             return new Expr.Literal(false);
@@ -343,33 +522,44 @@ class Parser {
             return new Expr.Literal(true);
         if (match(NIL))
             return new Expr.Literal(null);
-        if (match(NUMBER, STRING))
+        if (match(NUMBER) || match(STRING))
             return new Expr.Literal(previous().literal);
         if (match(IDENTIFIER))
             return new Expr.Variable(previous());
+        if (match(LEFT_BRACKET))
+            return list();
+        if (match(LEFT_BRACE))
+            return map();
         if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
+            boolean enclosing = inArguments;
+            inArguments = false;
+
+            try {
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            } finally {
+                inArguments = enclosing;
+            }
         }
 
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type))
-            return advance();
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
@@ -377,29 +567,35 @@ class Parser {
     private boolean check(TokenType type) {
         if (isAtEnd())
             return false;
-        return peek().type == type;
+        return tokens.type(0) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd())
-            current++;
-        return previous();
+            tokens.advance();
+    }
+
+    private boolean checkNext(TokenType type) {
+        if (isAtEnd())
+            return false;
+        TokenType next = tokens.type(1);
+        return next != EOF && next == type;
     }
 
-    private boolean isAtEnd() {
-        return peek().type == EOF;
+    boolean isAtEnd() {
+        return tokens.type(0) == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(current, message);
+        Lox.error(token, message);
         return new ParseError();
     }
 
@@ -407,11 +603,12 @@ class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON)
+            if (tokens.type(-1) == SEMICOLON)
                 return;
 
-            switch (peek().type) {
+            switch (tokens.type(0)) {
                 case BREAK:
+                case CONTINUE:
                 case CLASS:
                 case FUN:
                 case VAR:
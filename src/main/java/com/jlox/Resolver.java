@@ -0,0 +1,318 @@
+package main.java.com.jlox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Static pass run between the Parser and the Interpreter. Every local variable
+// gets a slot in its block's environment, and every use of it records how many
+// environments up it lives, so the Interpreter never has to look locals up by
+// name. Anything not found in a local scope is left to the globals.
+class Resolver implements Expr.Visitor<Void>, Statement.Visitor<Void> {
+    private final Stack<Map<String, Integer>> scopes = new Stack<>();
+    private Stack<Statement.While> loops = new Stack<>();
+    private final Stack<Statement.Function> functions = new Stack<>();
+
+    void resolve(List<Statement> stmts) {
+        for (Statement stmt : stmts) {
+            resolve(stmt);
+        }
+    }
+
+    private void resolve(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.push(new HashMap<String, Integer>());
+    }
+
+    private int endScope() {
+        return scopes.pop().size();
+    }
+
+    private int declare(Token name) {
+        Map<String, Integer> scope = scopes.peek();
+        Integer slot = scope.get(name.lexeme);
+
+        // Redeclaring a variable in the same block reuses its slot, the same way
+        // the old name-keyed environment simply overwrote the entry.
+        if (slot == null) {
+            slot = scope.size();
+            scope.put(name.lexeme, slot);
+        }
+
+        return slot;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt) {
+        beginScope();
+        resolve(stmt.stmts);
+        stmt.slots = endScope();
+
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt) {
+        // The initializer is resolved before the name is declared so that
+        // 'var a = a;' still reads the 'a' from an enclosing scope.
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+
+        if (!scopes.isEmpty()) {
+            stmt.slot = declare(stmt.name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int depth = depthOf(expr.name);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(expr.name, depth);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        int depth = depthOf(expr.name);
+        if (depth >= 0) {
+            expr.depth = depth;
+            expr.slot = slotOf(expr.name, depth);
+        }
+
+        return null;
+    }
+
+    private int depthOf(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(name.lexeme)) {
+                return scopes.size() - 1 - i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int slotOf(Token name, int depth) {
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Statement.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Statement.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            resolve(stmt.elseBranch);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt) {
+        resolve(stmt.condition);
+
+        loops.push(stmt);
+        resolve(stmt.body);
+        loops.pop();
+
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Statement.Break stmt) {
+        stmt.loop = targetLoop(stmt.keyword, stmt.label);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Statement.Continue stmt) {
+        stmt.loop = targetLoop(stmt.keyword, stmt.label);
+        return null;
+    }
+
+    private Statement.While targetLoop(Token keyword, Token label) {
+        if (loops.isEmpty()) {
+            Lox.error(keyword, "Cannot use '" + keyword.lexeme + "' outside of a loop.");
+            return null;
+        }
+
+        if (label == null) {
+            return loops.peek();
+        }
+
+        for (int i = loops.size() - 1; i >= 0; i--) {
+            Statement.While loop = loops.get(i);
+            if (loop.label != null && loop.label.lexeme.equals(label.lexeme)) {
+                return loop;
+            }
+        }
+
+        Lox.error(label, "No enclosing loop labeled '" + label.lexeme + "'.");
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.left);
+        resolve(expr.mid);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr arg : expr.args) {
+            resolve(arg);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt) {
+        // Declared before the body is resolved so the function can call itself.
+        if (!scopes.isEmpty()) {
+            stmt.slot = declare(stmt.name);
+        }
+
+        // A function declared in here closes over the frame of every function
+        // it is nested in, so none of those frames may be reused.
+        for (Statement.Function function : functions) {
+            function.poolable = false;
+        }
+
+        Stack<Statement.While> enclosingLoops = loops;
+        loops = new Stack<>();
+        functions.push(stmt);
+        beginScope();
+
+        for (Token param : stmt.params) {
+            if (scopes.peek().containsKey(param.lexeme)) {
+                Lox.error(param, "Duplicate parameter '" + param.lexeme + "'.");
+            }
+            declare(param);
+        }
+        // A lazy body is resolved on its own once it is parsed.
+        if (stmt.lazy == null) {
+            resolve(stmt.body);
+        }
+
+        stmt.slots = endScope();
+        functions.pop();
+        loops = enclosingLoops;
+
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt) {
+        if (functions.isEmpty()) {
+            Lox.error(stmt.keyword, "Cannot return from top-level code.");
+        }
+
+        if (stmt.value != null) {
+            resolve(stmt.value);
+            stmt.tailCall = stmt.value instanceof Expr.Call;
+        }
+
+        return null;
+    }
+}
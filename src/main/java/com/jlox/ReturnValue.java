@@ -0,0 +1,29 @@
+package main.java.com.jlox;
+
+// Thrown by a return statement and caught by the call it returns from. Like
+// Jump, each backend keeps one instance without a stack trace. A tail call
+// does not run the callee; it hands back the callee and its frame with the
+// arguments already bound, and the caller's loop runs it in its place.
+class ReturnValue extends RuntimeException {
+    Object value;
+    LoxFunction function;
+    Environment frame;
+
+    ReturnValue() {
+        super(null, null, false, false);
+    }
+
+    ReturnValue value(Object value) {
+        this.value = value;
+        this.function = null;
+        this.frame = null;
+        return this;
+    }
+
+    ReturnValue tailCall(LoxFunction function, Environment frame) {
+        this.value = null;
+        this.function = function;
+        this.frame = frame;
+        return this;
+    }
+}
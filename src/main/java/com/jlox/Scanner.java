@@ -1,74 +1,273 @@
 package main.java.com.jlox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import static main.java.com.jlox.TokenType.*;
 
+// Turns source text into tokens on demand. The text is read from a Reader
+// through a window that only has to hold the tokens still in the TokenStream,
+// so a script is never held in memory as a whole. start and current index the
+// window.
+//
+// A script can also be scanned from the UTF-8 bytes of a mapped file, through
+// a byte window instead. Everything outside string literals is ASCII, so bytes
+// are used as chars and nothing is decoded but the text of each token.
 class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-    private static final Map<String, TokenType> keywords;
-
-    private boolean inBlockComment = false;
+    private static final int WINDOW = 1 << 14;
+
+    private final Reader reader;
+    private char[] buffer;
+    private final ByteBuffer bytes;
+    // The source as a whole when it was given as a String, and where in it
+    // or in the bytes scanning started.
+    private String source;
+    private int origin = 0;
+    private byte[] window;
+    private int limit = 0;
+    private boolean eof = false;
+    private final TokenStream tokens = new TokenStream(this);
+    // Identifier names made so far, by open addressing on their hash. Every
+    // use of a name shares one String.
+    private String[] names = new String[64];
+    private int nameCount = 0;
+
+    private boolean inBlockComment;
+    // Offsets in the source at which inBlockComment flipped, in order.
+    private int[] flips = new int[4];
+    private int flipCount = 0;
     private int start = 0;
     private int current = 0;
-    private int line = 1;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("break", BREAK);
-        keywords.put("class", CLASS);
-        keywords.put("continue", CONTINUE);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
+    private int line;
+    // Characters dropped from the front of the window so far.
+    private int discarded = 0;
 
     Scanner(String source) {
+        this(source, 0, 1, false);
+    }
+
+    Scanner(Reader reader) {
+        this(reader, 1, false);
+    }
+
+    // Scans source that starts on the given line, e.g. the rest of a script
+    // from some statement on, possibly after an unclosed block comment.
+    Scanner(String source, int from, int line, boolean inBlockComment) {
+        this(skip(new StringReader(source), from), line, inBlockComment);
         this.source = source;
+        this.origin = from;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
-            start = current;
-            scanToken();
+    private Scanner(Reader reader, int line, boolean inBlockComment) {
+        this.reader = reader;
+        this.buffer = new char[WINDOW];
+        this.bytes = null;
+        this.line = line;
+        this.inBlockComment = inBlockComment;
+    }
+
+    Scanner(ByteBuffer bytes) {
+        this(bytes, 1, false);
+    }
+
+    private Scanner(ByteBuffer bytes, int line, boolean inBlockComment) {
+        this.reader = null;
+        this.bytes = bytes;
+        this.origin = bytes.position();
+        this.window = new byte[WINDOW];
+        this.line = line;
+        this.inBlockComment = inBlockComment;
+    }
+
+    private static Reader skip(Reader reader, int from) {
+        try {
+            reader.skip(from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        return reader;
+    }
+
+    // Whether the source can be scanned again from some offset on, which a
+    // Reader cannot.
+    boolean resumable() {
+        return source != null || bytes != null;
+    }
+
+    // A new Scanner for the source from the given offset on, e.g. the body of
+    // a function the Parser skipped over.
+    Scanner resume(int offset, int line, boolean inBlockComment) {
+        if (source != null)
+            return new Scanner(source, origin + offset, line, inBlockComment);
+
+        ByteBuffer rest = bytes.duplicate();
+        rest.position(origin + offset);
+        return new Scanner(rest, line, inBlockComment);
+    }
+
+    // The tokens, scanned as they are asked for.
+    TokenStream tokens() {
+        return tokens;
+    }
+
+    // Scans the whole source up front. The window then holds all of it.
+    TokenStream scanTokens() {
+        tokens.scanAll();
         return tokens;
     }
 
+    // Scans until the stream has at least one more token, EOF at the end.
+    void scan() {
+        int scanned = tokens.size();
+        while (tokens.size() == scanned) {
+            if (isAtEnd()) {
+                start = current;
+                addToken(EOF);
+                return;
+            }
+
+            start = current;
+            scanToken();
+        }
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(0);
+    }
+
+    // Makes sure the character 'ahead' places after current is in the window,
+    // reading more of the source if needed. False when the source ends first.
+    private boolean available(int ahead) {
+        while (current + ahead >= limit) {
+            if (eof)
+                return false;
+            fill();
+        }
+
+        return true;
+    }
+
+    private void fill() {
+        if (bytes != null) {
+            fillBytes();
+            return;
+        }
+
+        if (limit == buffer.length) {
+            // Everything before the current token has been scanned, and the
+            // tokens still in the stream need their lexemes.
+            int from = tokens.retainFrom(start);
+            if (from > 0) {
+                System.arraycopy(buffer, from, buffer, 0, limit - from);
+                discard(from);
+            } else {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Bulk copies out of the mapped bytes; single gets would be bounds checked
+    // one at a time.
+    private void fillBytes() {
+        if (limit == window.length) {
+            int from = tokens.retainFrom(start);
+            if (from > 0) {
+                System.arraycopy(window, from, window, 0, limit - from);
+                discard(from);
+            } else {
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+        }
+
+        int read = Math.min(bytes.remaining(), window.length - limit);
+        if (read == 0) {
+            eof = true;
+        } else {
+            bytes.get(window, limit, read);
+            limit += read;
+        }
+    }
+
+    private void discard(int from) {
+        discarded += from;
+        limit -= from;
+        current -= from;
+        start -= from;
+        tokens.shift(from);
+    }
+
+    private void blockComment(boolean open) {
+        if (inBlockComment == open)
+            return;
+
+        inBlockComment = open;
+        if (flipCount == flips.length) {
+            // Only offsets still in the window are asked about.
+            int old = 0;
+            while (old < flipCount && flips[old] <= discarded) {
+                old++;
+            }
+
+            flipCount -= old;
+            System.arraycopy(flips, old, flips, 0, flipCount);
+            if (flipCount == flips.length)
+                flips = Arrays.copyOf(flips, flipCount * 2);
+        }
+        flips[flipCount++] = offset(current);
+    }
+
+    // Whether a block comment was left open before the given offset in the
+    // source. The scanner may have read past it since.
+    boolean inBlockCommentAt(int offset) {
+        boolean open = inBlockComment;
+        for (int i = flipCount - 1; i >= 0 && flips[i] > offset; i--) {
+            open = !open;
+        }
+
+        return open;
+    }
+
+    // Offset in the source of an index into the window.
+    int offset(int index) {
+        return discarded + index;
+    }
+
+    private char charAt(int index) {
+        if (bytes != null)
+            return (char) (window[index] & 0xff);
+        return buffer[index];
     }
 
     private char advance() {
         current++;
-        return source.charAt(current - 1);
+        return charAt(current - 1);
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    String text(int from, int to) {
+        if (bytes == null)
+            return new String(buffer, from, to - from);
+        return new String(window, from, to - from, StandardCharsets.UTF_8);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current, line);
     }
 
     private void scanToken() {
@@ -87,6 +286,12 @@ class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -106,7 +311,7 @@ class Scanner {
                 if (!inBlockComment && match('/')) {
                     Lox.error(line, "Malformed block comment.");
                 } else if (inBlockComment && match('/')) {
-                    inBlockComment = false;
+                    blockComment(false);
                 } else if (!match('/')) {
                     addToken(STAR);
                 }
@@ -125,16 +330,20 @@ class Scanner {
                 addToken(match('=') ? GREATER_EQUAL : GREATER);
                 break;
             case '/':
+                // Comments make no token, so the window need not keep them.
                 if (match('/')) {
-                    while (peek() != '\n' && !isAtEnd())
+                    while (peek() != '\n' && !isAtEnd()) {
                         advance();
+                        start = current;
+                    }
                 } else if (match('*')) {
-                    inBlockComment = true;
+                    blockComment(true);
                     while (peek() != '*' && peekNext() != '/' && !isAtEnd()) {
                         if (peek() == '\n')
                             line++;
 
                         advance();
+                        start = current;
                     }
                 } else {
                     addToken(SLASH);
@@ -160,6 +369,11 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
+                    // One error per character, not per byte of it.
+                    if (bytes != null) {
+                        while (!isAtEnd() && (charAt(current) & 0xc0) == 0x80)
+                            current++;
+                    }
                     Lox.error(line, "Unexpected token.");
                 }
                 break;
@@ -170,13 +384,130 @@ class Scanner {
         while (isAlphaNumeric(peek()))
             advance();
 
-        String text = source.substring(start, current);
+        addToken(keyword());
+    }
 
-        TokenType type = keywords.get(text);
-        if (type == null)
-            type = IDENTIFIER;
+    // Keywords are told apart by their first character or two and then checked
+    // in place, so no string is made while scanning an identifier.
+    private TokenType keyword() {
+        int length = current - start;
+        switch (charAt(start)) {
+            case 'a':
+                return keyword("and", AND);
+            case 'b':
+                return keyword("break", BREAK);
+            case 'c':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'l':
+                            return keyword("class", CLASS);
+                        case 'o':
+                            return keyword("continue", CONTINUE);
+                    }
+                }
+                break;
+            case 'e':
+                return keyword("else", ELSE);
+            case 'f':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a':
+                            return keyword("false", FALSE);
+                        case 'o':
+                            return keyword("for", FOR);
+                        case 'u':
+                            return keyword("fun", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                return keyword("if", IF);
+            case 'n':
+                return keyword("nil", NIL);
+            case 'o':
+                return keyword("or", OR);
+            case 'p':
+                return keyword("print", PRINT);
+            case 'r':
+                return keyword("return", RETURN);
+            case 's':
+                return keyword("super", SUPER);
+            case 't':
+                if (length > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'h':
+                            return keyword("this", THIS);
+                        case 'r':
+                            return keyword("true", TRUE);
+                    }
+                }
+                break;
+            case 'v':
+                return keyword("var", VAR);
+            case 'w':
+                return keyword("while", WHILE);
+        }
+
+        return IDENTIFIER;
+    }
+
+    private TokenType keyword(String keyword, TokenType type) {
+        if (!matches(keyword, start, current))
+            return IDENTIFIER;
+        return type;
+    }
+
+    private boolean matches(String text, int from, int to) {
+        if (text.length() != to - from)
+            return false;
+
+        for (int i = 0; i < text.length(); i++) {
+            if (charAt(from + i) != text.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    // The name of an identifier token. It is only made the first time the name
+    // is seen; identifiers are ASCII, so its hash can be taken in place.
+    String name(int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + charAt(i);
+        }
 
-        addToken(type);
+        int mask = names.length - 1;
+        int index = hash & mask;
+        String name;
+        while ((name = names[index]) != null) {
+            if (name.hashCode() == hash && matches(name, from, to))
+                return name;
+            index = (index + 1) & mask;
+        }
+
+        name = text(from, to);
+        names[index] = name;
+        if (++nameCount * 2 > names.length)
+            rehash();
+
+        return name;
+    }
+
+    private void rehash() {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+        for (String name : old) {
+            if (name == null)
+                continue;
+
+            int index = name.hashCode() & mask;
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+            names[index] = name;
+        }
     }
 
     private void number() {
@@ -191,7 +522,7 @@ class Scanner {
 
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER);
     }
 
     private void string() {
@@ -207,14 +538,13 @@ class Scanner {
         }
 
         advance();
-        String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING);
     }
 
     private boolean match(char expected) {
         if (isAtEnd())
             return false;
-        if (source.charAt(current) != expected)
+        if (charAt(current) != expected)
             return false;
 
         current++;
@@ -224,14 +554,14 @@ class Scanner {
     private char peek() {
         if (isAtEnd())
             return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length())
+        if (!available(1))
             return '\0';
 
-        return source.charAt(current + 1);
+        return charAt(current + 1);
     }
 
     private boolean isAlpha(char c) {
@@ -19,6 +19,10 @@ abstract class Statement {
         R visitBreakStmt(Break stmt);
 
         R visitContinueStmt(Continue stmt);
+
+        R visitFunctionStmt(Function stmt);
+
+        R visitReturnStmt(Return stmt);
     }
 
     static class Expression extends Statement {
@@ -60,6 +64,8 @@ abstract class Statement {
 
         final Token name;
         final Expr initializer;
+        // Slot in the enclosing block's environment, or -1 for a global.
+        int slot = -1;
     }
 
     static class Block extends Statement {
@@ -75,6 +81,8 @@ abstract class Statement {
 
         final List<Statement> stmts;
         public int loopDepth;
+        // Number of variables declared directly in this block, set by the Resolver.
+        int slots;
     }
 
     static class If extends Statement {
@@ -96,9 +104,11 @@ abstract class Statement {
     }
 
     static class While extends Statement {
-        While(Expr condition, Statement body) {
+        While(Expr condition, Statement body, Expr increment, Token label) {
             this.condition = condition;
             this.body = body;
+            this.increment = increment;
+            this.label = label;
         }
 
         @Override
@@ -108,26 +118,91 @@ abstract class Statement {
 
         final Expr condition;
         final Statement body;
+        // Only set for desugared for loops, run after the body and on 'continue'.
+        final Expr increment;
+        final Token label;
+        // Iterations seen by the Interpreter and the code the LoopCompiler
+        // produced once that count reached its threshold, if any.
+        int hotness;
+        LoopCompiler.CompiledLoop compiled;
     }
 
     static class Break extends Statement {
-        Break() {
+        Break(Token keyword, Token label) {
+            this.keyword = keyword;
+            this.label = label;
         }
 
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBreakStmt(this);
         }
+
+        final Token keyword;
+        final Token label;
+        // The loop this break leaves, set by the Resolver.
+        While loop;
     }
 
     static class Continue extends Statement {
-        Continue() {
+        Continue(Token keyword, Token label) {
+            this.keyword = keyword;
+            this.label = label;
         }
 
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitContinueStmt(this);
         }
+
+        final Token keyword;
+        final Token label;
+        While loop;
+    }
+
+    static class Function extends Statement {
+        Function(Token name, List<Token> params, List<Statement> body) {
+            this.name = name;
+            this.params = params;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitFunctionStmt(this);
+        }
+
+        final Token name;
+        final List<Token> params;
+        List<Statement> body;
+        // Set by the Parser in lazy mode instead of the body, until the first
+        // call parses it.
+        Parser.LazyBody lazy;
+        // Set by the Resolver: the slot of the function's name (-1 for a
+        // global), the size of a call frame with the parameters in its first
+        // slots, and whether frames can be reused once a call returns, which
+        // is not the case when a function declared inside may capture them.
+        int slot = -1;
+        int slots;
+        boolean poolable = true;
+    }
+
+    static class Return extends Statement {
+        Return(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitReturnStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+        // Set by the Resolver when the value is a call whose result is returned
+        // as is, so the call can replace the current one.
+        boolean tailCall;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
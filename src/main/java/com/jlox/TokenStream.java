@@ -0,0 +1,154 @@
+package main.java.com.jlox;
+
+import java.util.Arrays;
+
+import static main.java.com.jlox.TokenType.*;
+
+// The tokens of a script as parallel arrays instead of one Token each: a type,
+// the range of the lexeme in the Scanner's window and a line. A Token, with its
+// lexeme and literal, is only made for the ones the Parser keeps in the tree or
+// reports an error at. Tokens the Parser is done with are dropped in batches,
+// unless the whole source was scanned up front.
+class TokenStream {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int BATCH = 256;
+
+    private final Scanner scanner;
+    private byte[] types = new byte[BATCH * 2];
+    private int[] starts = new int[BATCH * 2];
+    private int[] ends = new int[BATCH * 2];
+    private int[] lines = new int[BATCH * 2];
+    private Token[] made = new Token[BATCH * 2];
+    private int count = 0;
+    // Index of the current token.
+    private int position = 0;
+    private boolean ended = false;
+    private boolean keepAll = false;
+
+    TokenStream(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    Scanner scanner() {
+        return scanner;
+    }
+
+    void add(TokenType type, int start, int end, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            made = Arrays.copyOf(made, capacity);
+        }
+
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        ends[count] = end;
+        lines[count] = line;
+        made[count] = null;
+        count++;
+
+        if (type == EOF)
+            ended = true;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // Scans the rest of the source and keeps every token from then on.
+    void scanAll() {
+        keepAll = true;
+        while (!ended) {
+            scanner.scan();
+        }
+    }
+
+    // Where the Scanner's window has to start for every token held to keep its
+    // lexeme.
+    int retainFrom(int start) {
+        return count == 0 ? start : Math.min(start, starts[0]);
+    }
+
+    // The Scanner dropped 'by' characters from the front of its window.
+    void shift(int by) {
+        for (int i = 0; i < count; i++) {
+            starts[i] -= by;
+            ends[i] -= by;
+        }
+    }
+
+    TokenType type(int ahead) {
+        return TYPES[types[index(ahead)]];
+    }
+
+    Token peek() {
+        return token(index(0));
+    }
+
+    Token previous() {
+        return token(position - 1);
+    }
+
+    // Where the previous token ends in the source, and its line.
+    int previousEnd() {
+        return scanner.offset(ends[position - 1]);
+    }
+
+    int previousLine() {
+        return lines[position - 1];
+    }
+
+    void advance() {
+        if (type(0) == EOF)
+            return;
+
+        position++;
+        if (!keepAll && position > BATCH) {
+            // Only the previous token can still be asked for.
+            int drop = position - 1;
+            count -= drop;
+            System.arraycopy(types, drop, types, 0, count);
+            System.arraycopy(starts, drop, starts, 0, count);
+            System.arraycopy(ends, drop, ends, 0, count);
+            System.arraycopy(lines, drop, lines, 0, count);
+            System.arraycopy(made, drop, made, 0, count);
+            Arrays.fill(made, count, count + drop, null);
+            position = 1;
+        }
+    }
+
+    // Scans as far as the token 'ahead' places after the current one. Past the
+    // end that is the EOF token.
+    private int index(int ahead) {
+        int index = position + ahead;
+        while (index >= count && !ended) {
+            scanner.scan();
+        }
+
+        return Math.min(index, count - 1);
+    }
+
+    private Token token(int index) {
+        Token token = made[index];
+        if (token == null) {
+            TokenType type = TYPES[types[index]];
+            String lexeme = type == IDENTIFIER
+                    ? scanner.name(starts[index], ends[index])
+                    : scanner.text(starts[index], ends[index]);
+            Object literal = null;
+            if (type == NUMBER) {
+                literal = Numbers.box(Double.parseDouble(lexeme));
+            } else if (type == STRING) {
+                literal = lexeme.substring(1, lexeme.length() - 1);
+            }
+
+            token = new Token(type, lexeme, literal, lines[index]);
+            made[index] = token;
+        }
+
+        return token;
+    }
+}
@@ -1,7 +1,7 @@
 package main.java.com.jlox;
 
 enum TokenType {
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, BREAK, COMMA, CONTINUE, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, COLON, QUESTION,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET, BREAK, COMMA, CONTINUE, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, COLON, QUESTION,
 
     BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL,
 
@@ -0,0 +1,206 @@
+package main.java.com.jlox;
+
+import java.util.List;
+
+// Marks every expression that can only ever produce a number (or fail with a
+// runtime error before producing anything). The Interpreter evaluates those
+// through evaluateDouble() and only boxes the result once it leaves the
+// arithmetic, e.g. when it is stored in a variable or printed.
+class TypeInferrer implements Expr.Visitor<Boolean>, Statement.Visitor<Void> {
+    void infer(List<Statement> stmts) {
+        for (Statement stmt : stmts) {
+            infer(stmt);
+        }
+    }
+
+    private void infer(Statement stmt) {
+        stmt.accept(this);
+    }
+
+    boolean infer(Expr expr) {
+        boolean numeric = expr.accept(this);
+        expr.numeric = numeric;
+        return numeric;
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr) {
+        boolean left = infer(expr.left);
+        boolean right = infer(expr.right);
+
+        switch (expr.operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return true;
+            case PLUS:
+                // Anything but two numbers is either concatenation or an error.
+                return left && right;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public Boolean visitTernaryExpr(Expr.Ternary expr) {
+        infer(expr.left);
+        boolean mid = infer(expr.mid);
+        boolean right = infer(expr.right);
+
+        return mid && right;
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr) {
+        return Numbers.isNumber(expr.value);
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        return expr.operator.type == TokenType.MINUS;
+    }
+
+    @Override
+    public Boolean visitVariableExpr(Expr.Variable expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr) {
+        infer(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Expr.Logical expr) {
+        infer(expr.left);
+        infer(expr.right);
+        return false;
+    }
+
+    @Override
+    public Boolean visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr arg : expr.args) {
+            infer(arg);
+        }
+
+        return false;
+    }
+
+    @Override
+    public Boolean visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            infer(element);
+        }
+
+        return false;
+    }
+
+    @Override
+    public Boolean visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            infer(expr.keys.get(i));
+            infer(expr.values.get(i));
+        }
+
+        return false;
+    }
+
+    @Override
+    public Boolean visitIndexExpr(Expr.Index expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return false;
+    }
+
+    @Override
+    public Boolean visitSetIndexExpr(Expr.SetIndex expr) {
+        infer(expr.object);
+        infer(expr.index);
+        infer(expr.value);
+        return false;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Statement.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Statement.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Statement.Var stmt) {
+        if (stmt.initializer != null) {
+            infer(stmt.initializer);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Statement.Block stmt) {
+        infer(stmt.stmts);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Statement.If stmt) {
+        infer(stmt.condition);
+        infer(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            infer(stmt.elseBranch);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Statement.While stmt) {
+        infer(stmt.condition);
+        infer(stmt.body);
+        if (stmt.increment != null) {
+            infer(stmt.increment);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Statement.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Statement.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Statement.Function stmt) {
+        if (stmt.lazy == null) {
+            infer(stmt.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Statement.Return stmt) {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+
+        return null;
+    }
+}
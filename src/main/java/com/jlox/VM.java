@@ -0,0 +1,258 @@
+package main.java.com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Stack machine that runs the chunks produced by the BytecodeCompiler. Globals
+// are shared with the tree-walking Interpreter so both backends see the same
+// state from one REPL line to the next.
+class VM {
+    private final Interpreter interpreter;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void interperet(Chunk chunk) {
+        try {
+            run(chunk);
+        } catch (RunTimeError error) {
+            Lox.RunTimeError(error);
+        }
+    }
+
+    private void run(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final Token[] tokens = chunk.tokens;
+        final Object[] constants = chunk.constants.toArray();
+        final Object[] stack = new Object[chunk.maxStack];
+        final Object[] locals = new Object[chunk.maxLocals];
+
+        int sp = 0;
+        int ip = 0;
+
+        for (;;) {
+            final int at = ip;
+
+            switch (code[ip++]) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+
+                case OpCode.GET_LOCAL: {
+                    Object value = locals[readShort(code, ip)];
+                    ip += 2;
+                    stack[sp++] = initialized(tokens[at], value);
+                    break;
+                }
+                case OpCode.SET_LOCAL:
+                    locals[readShort(code, ip)] = stack[sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_LOCAL:
+                    locals[readShort(code, ip)] = stack[--sp];
+                    ip += 2;
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    Global global = (Global) constants[readShort(code, ip)];
+                    ip += 2;
+                    stack[sp++] = initialized(tokens[at], global.get(tokens[at]));
+                    break;
+                }
+                case OpCode.SET_GLOBAL:
+                    ((Global) constants[readShort(code, ip)]).assign(tokens[at], stack[sp - 1]);
+                    ip += 2;
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    ((Global) constants[readShort(code, ip)]).define(stack[--sp]);
+                    ip += 2;
+                    break;
+
+                case OpCode.EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = (int) a > (int) b;
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) > Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = (int) a >= (int) b;
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) >= Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = (int) a < (int) b;
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) < Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = (int) a <= (int) b;
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) <= Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = Numbers.add((int) a, (int) b);
+                    } else if (Numbers.isNumber(a) && Numbers.isNumber(b)) {
+                        stack[sp - 1] = Numbers.toDouble(a) + Numbers.toDouble(b);
+                    } else if (a instanceof CharSequence && b instanceof CharSequence) {
+                        stack[sp - 1] = LoxString.concat((CharSequence) a, (CharSequence) b);
+                    } else {
+                        throw new RunTimeError(tokens[at], "Operands must both be numbers or strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = Numbers.subtract((int) a, (int) b);
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) - Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = Numbers.multiply((int) a, (int) b);
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) * Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Integer && b instanceof Integer) {
+                        stack[sp - 1] = (double) (int) a / (int) b;
+                    } else {
+                        Interpreter.checkNumberOperands(tokens[at], a, b);
+                        stack[sp - 1] = Numbers.toDouble(a) / Numbers.toDouble(b);
+                    }
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.verisimilitude(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (stack[sp - 1] instanceof Integer) {
+                        stack[sp - 1] = Numbers.negate((int) stack[sp - 1]);
+                    } else {
+                        Interpreter.checkNumberOperand(tokens[at], stack[sp - 1]);
+                        stack[sp - 1] = -(double) stack[sp - 1];
+                    }
+                    break;
+
+                case OpCode.PRINT:
+                    interpreter.output.println(stack[--sp]);
+                    break;
+                case OpCode.JUMP:
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Interpreter.verisimilitude(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += 2 + readShort(code, ip);
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip = ip + 2 - readShort(code, ip);
+                    break;
+                case OpCode.CHECK_BOOLEAN:
+                    if (!(stack[sp - 1] instanceof Boolean)) {
+                        throw new RunTimeError(tokens[at],
+                                " The left expression in ternary operator must return a boolean value.");
+                    }
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    sp -= argCount;
+                    stack[sp - 1] = call(tokens[at], stack[sp - 1], stack, sp, argCount);
+                    break;
+                }
+                case OpCode.RETURN:
+                    return;
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private static Object initialized(Token name, Object value) {
+        if (value == null)
+            throw new RunTimeError(name, "Cannot access uninitialized variable '" + name.lexeme + "'.");
+        return value;
+    }
+
+    private Object call(Token paren, Object callee, Object[] stack, int first, int argCount) {
+        switch (argCount) {
+            case 0:
+                return Interpreter.call0(interpreter, paren, callee);
+            case 1:
+                return Interpreter.call1(interpreter, paren, callee, stack[first]);
+            case 2:
+                return Interpreter.call2(interpreter, paren, callee, stack[first], stack[first + 1]);
+        }
+
+        List<Object> args = new ArrayList<>(argCount);
+        for (int i = 0; i < argCount; i++) {
+            args.add(stack[first + i]);
+        }
+
+        return Interpreter.call(interpreter, paren, callee, args);
+    }
+}